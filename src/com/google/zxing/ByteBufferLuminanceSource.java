@@ -0,0 +1,149 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This object extends LuminanceSource around a {@link ByteBuffer} of 8 bit luminances, such as
+ * the Y plane of a camera frame or packed gray pixels, with the option to crop to a rectangle
+ * within it. The buffer may be direct, or a {@link java.nio.MappedByteBuffer} over a file the
+ * frames are written to, and is read in place.
+ *
+ * Only the rows asked for are copied. The binarizers see that {@link #isMatrixCopied()} and read
+ * the image a few rows at a time, so the frame is never copied whole onto the heap unless
+ * {@link #getMatrix()} is called directly.
+ *
+ * The buffer is read at absolute indices, leaving its position and limit alone, so several
+ * threads may read the same source. The frame must not be overwritten while it is decoded.
+ */
+public final class ByteBufferLuminanceSource extends LuminanceSource {
+
+  private final ByteBuffer buffer;
+  private final int offset;
+  private final int rowStride;
+
+  /**
+   * For a frame of packed rows starting at index 0 of "buffer".
+   */
+  public ByteBufferLuminanceSource(ByteBuffer buffer, int width, int height) {
+    this(buffer, 0, width, width, height);
+  }
+
+  /**
+   * @param buffer one byte of luminance per pixel
+   * @param offset index in the buffer of the top left pixel
+   * @param rowStride distance in bytes from the start of one row to the start of the next, at
+   *  least the width
+   * @param width width of the image in pixels
+   * @param height height of the image in pixels
+   */
+  public ByteBufferLuminanceSource(ByteBuffer buffer, int offset, int rowStride, int width, int height) {
+    super(width, height);
+
+    if (offset < 0 || rowStride < width ||
+        offset + (long) (height - 1) * rowStride + width > buffer.limit()) {
+      throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+    }
+
+    this.buffer = buffer;
+    this.offset = offset;
+    this.rowStride = rowStride;
+  }
+
+  @Override
+  public byte[] getRow(int y, byte[] row) {
+    if (y < 0 || y >= getHeight()) {
+      throw new IllegalArgumentException("Requested row is outside the image: " + y);
+    }
+    int width = getWidth();
+    if (row == null || row.length < width) {
+      row = new byte[width];
+    }
+    read(offset + y * rowStride, row, 0, width);
+    return row;
+  }
+
+  @Override
+  public byte[] getRows(int y, int numRows, byte[] rows) {
+    if (y < 0 || numRows < 0 || y + numRows > getHeight()) {
+      throw new IllegalArgumentException("Requested rows are outside the image: " + y + '+' + numRows);
+    }
+    return copyRows(y, numRows, rows);
+  }
+
+  @Override
+  public byte[] getMatrix() {
+    return getMatrix(null);
+  }
+
+  @Override
+  public byte[] getMatrix(byte[] matrix) {
+    // A heap buffer laid out like the matrix is handed out as is
+    if (!isMatrixCopied()) {
+      return buffer.array();
+    }
+    return copyRows(0, getHeight(), matrix);
+  }
+
+  @Override
+  public boolean isMatrixCopied() {
+    return !buffer.hasArray() || buffer.arrayOffset() + offset != 0 || rowStride != getWidth();
+  }
+
+  @Override
+  public boolean isCropSupported() {
+    return true;
+  }
+
+  @Override
+  public LuminanceSource crop(int left, int top, int width, int height) {
+    if (left + width > getWidth() || top + height > getHeight()) {
+      throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+    }
+    return new ByteBufferLuminanceSource(buffer, offset + top * rowStride + left, rowStride, width, height);
+  }
+
+  private byte[] copyRows(int y, int numRows, byte[] rows) {
+    int width = getWidth();
+    int size = numRows * width;
+    if (rows == null || rows.length < size) {
+      rows = new byte[size];
+    }
+    int index = offset + y * rowStride;
+    // If the rows are packed, perform a single copy.
+    if (rowStride == width) {
+      read(index, rows, 0, size);
+      return rows;
+    }
+    for (int i = 0; i < numRows; i++) {
+      read(index, rows, i * width, width);
+      index += rowStride;
+    }
+    return rows;
+  }
+
+  /**
+   * Copies through a duplicate of the buffer, so its position is neither used nor changed.
+   */
+  private void read(int index, byte[] destination, int destinationOffset, int length) {
+    ByteBuffer view = buffer.duplicate();
+    view.position(index);
+    view.get(destination, destinationOffset, length);
+  }
+
+}
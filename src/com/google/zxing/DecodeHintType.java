@@ -16,6 +16,8 @@
 
 package com.google.zxing;
 
+import com.google.zxing.common.DecodeContext;
+
 import java.util.List;
 
 /**
@@ -98,6 +100,12 @@ public enum DecodeHintType {
    */
   ALLOWED_EAN_EXTENSIONS(int[].class),
 
+  /**
+   * Buffers to reuse from one frame to the next. Maps to a {@link DecodeContext}, which should
+   * also be given to the {@link Binarizer}.
+   */
+  DECODE_CONTEXT(DecodeContext.class),
+
   // End of enumeration values.
   ;
 
@@ -92,4 +92,24 @@ public enum EncodeHintType {
    AZTEC_LAYERS,
 
    QR_VERSION,
+
+  /**
+   * Specifies whether QR Codes may mix NUMERIC, ALPHANUMERIC, BYTE and KANJI segments to get the
+   * fewest bits, and so possibly a smaller version, instead of one mode for the whole content
+   * (type {@link Boolean}).
+   */
+  QR_COMPACT,
+
+  /**
+   * Specifies a directory to dump the intermediate images of the QR Code beautify pipeline into
+   * (type {@link String}). Meant for debugging only; without it the pipeline never touches the disk.
+   */
+  BEAUTIFY_DEBUG_DIR,
+
+  /**
+   * Specifies whether the QR Code beautify pipeline should try all mask patterns in parallel and keep
+   * the one whose data modules deviate least from the embedded image, weighted by module importance,
+   * instead of always using mask 0 (type {@link Boolean}).
+   */
+  BEAUTIFY_MASK_SEARCH,
 }
@@ -59,6 +59,51 @@ public abstract class LuminanceSource {
    */
   public abstract byte[] getMatrix();
 
+  /**
+   * As {@link #getMatrix()}, but when the luminances have to be copied, they are copied into
+   * "matrix" if it holds at least width * height bytes.
+   *
+   * @param matrix An optional preallocated array. If null or too small, it will be ignored.
+   *               Always use the returned object.
+   * @return A row-major 2D array of luminance values
+   */
+  public byte[] getMatrix(byte[] matrix) {
+    return getMatrix();
+  }
+
+  /**
+   * @return Whether {@link #getMatrix()} has to copy the whole image onto the heap. Binarizers then
+   *  read the image a few rows at a time with {@link #getRows(int, int, byte[])} instead.
+   */
+  public boolean isMatrixCopied() {
+    return false;
+  }
+
+  /**
+   * Fetches several consecutive rows, one after the other in the same layout as
+   * {@link #getMatrix()}.
+   *
+   * @param y The first row to fetch, which must be in [0,getHeight())
+   * @param numRows The number of rows, which must not go past the bottom of the image
+   * @param rows An optional preallocated array. If null or too small, it will be ignored.
+   *             Always use the returned object.
+   * @return An array with the luminances of the rows, width bytes each
+   */
+  public byte[] getRows(int y, int numRows, byte[] rows) {
+    if (y < 0 || numRows < 0 || y + numRows > height) {
+      throw new IllegalArgumentException("Requested rows are outside the image: " + y + '+' + numRows);
+    }
+    if (rows == null || rows.length < numRows * width) {
+      rows = new byte[numRows * width];
+    }
+    byte[] row = null;
+    for (int i = 0; i < numRows; i++) {
+      row = getRow(y + i, row);
+      System.arraycopy(row, 0, rows, i * width, width);
+    }
+    return rows;
+  }
+
   /**
    * @return The width of the bitmap.
    */
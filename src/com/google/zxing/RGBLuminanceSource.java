@@ -94,6 +94,11 @@ public final class RGBLuminanceSource extends LuminanceSource {
 
   @Override
   public byte[] getMatrix() {
+    return getMatrix(null);
+  }
+
+  @Override
+  public byte[] getMatrix(byte[] matrix) {
     int width = getWidth();
     int height = getHeight();
 
@@ -104,7 +109,9 @@ public final class RGBLuminanceSource extends LuminanceSource {
     }
 
     int area = width * height;
-    byte[] matrix = new byte[area];
+    if (matrix == null || matrix.length < area) {
+      matrix = new byte[area];
+    }
     int inputOffset = top * dataWidth + left;
 
     // If the width matches the full width of the underlying data, perform a single copy.
@@ -186,6 +186,17 @@ public final class BitArray implements Cloneable {
     }
   }
 
+  /**
+   * Removes all bits, keeping the storage so that appending as many again does not reallocate.
+   */
+  public void reset() {
+    int max = (size + 31) / 32;
+    for (int i = 0; i < max; i++) {
+      bits[i] = 0;
+    }
+    size = 0;
+  }
+
   /**
    * Efficient method to check if a range of bits is set, or not set.
    *
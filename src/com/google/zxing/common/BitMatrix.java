@@ -388,6 +388,13 @@ public final class BitMatrix implements Cloneable {
     return rowSize;
   }
 
+  /**
+   * @return the words of all rows, {@link #getRowSize()} per row, for code that fills whole words
+   */
+  int[] getBits() {
+    return bits;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (!(o instanceof BitMatrix)) {
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.common;
+
+/**
+ * Keeps the large buffers of a decode so that the next frame of the same size reuses them instead
+ * of allocating new ones: the black matrix and the black point table of the binarizers, the copy
+ * of the luminances and the rows read by the 1D readers.
+ *
+ * Give the context to the binarizer (for example
+ * {@link HybridBinarizer#HybridBinarizer(com.google.zxing.LuminanceSource, DecodeContext)}) and to
+ * the readers with {@link com.google.zxing.DecodeHintType#DECODE_CONTEXT}. Anything handed out for
+ * one frame, including the {@link BitMatrix} returned by the binarizer, is overwritten by the next
+ * frame decoded with the same context. A context is meant to be kept per thread; it is not safe
+ * to use from several threads at once.
+ */
+public final class DecodeContext {
+
+  private BitMatrix blackMatrix;
+  private int[][] blackPoints;
+  private byte[] luminances;
+  private byte[] rowLuminances;
+  private BitArray row;
+
+  /**
+   * @return a cleared matrix of the given size
+   */
+  public BitMatrix getBlackMatrix(int width, int height) {
+    if (blackMatrix == null || blackMatrix.getWidth() != width || blackMatrix.getHeight() != height) {
+      blackMatrix = new BitMatrix(width, height);
+    } else {
+      blackMatrix.clear();
+    }
+    return blackMatrix;
+  }
+
+  /**
+   * @return a table of the given size, with unspecified contents
+   */
+  public int[][] getBlackPoints(int subWidth, int subHeight) {
+    if (blackPoints == null || blackPoints.length != subHeight || blackPoints[0].length != subWidth) {
+      blackPoints = new int[subHeight][subWidth];
+    }
+    return blackPoints;
+  }
+
+  /**
+   * @return an array of at least "size" bytes, with unspecified contents, to copy a whole frame of
+   *  luminances into
+   */
+  public byte[] getLuminances(int size) {
+    if (luminances == null || luminances.length < size) {
+      luminances = new byte[size];
+    }
+    return luminances;
+  }
+
+  /**
+   * @return an array of at least "size" bytes, with unspecified contents, for one row of luminances
+   */
+  public byte[] getRowLuminances(int size) {
+    if (rowLuminances == null || rowLuminances.length < size) {
+      rowLuminances = new byte[size];
+    }
+    return rowLuminances;
+  }
+
+  /**
+   * @return a cleared row of exactly "size" bits
+   */
+  public BitArray getRow(int size) {
+    if (row == null || row.getSize() != size) {
+      row = new BitArray(size);
+    } else {
+      row.clear();
+    }
+    return row;
+  }
+
+}
@@ -40,11 +40,25 @@ public class GlobalHistogramBinarizer extends Binarizer {
 
   private byte[] luminances;
   private final int[] buckets;
+  private final DecodeContext context;
 
   public GlobalHistogramBinarizer(LuminanceSource source) {
+    this(source, null);
+  }
+
+  /**
+   * @param context buffers to reuse between frames, or null. The binarizers made by
+   *  {@link #createBinarizer(LuminanceSource)} don't share it, as they may live alongside this one.
+   */
+  public GlobalHistogramBinarizer(LuminanceSource source, DecodeContext context) {
     super(source);
     luminances = EMPTY;
     buckets = new int[LUMINANCE_BUCKETS];
+    this.context = context;
+  }
+
+  DecodeContext getDecodeContext() {
+    return context;
   }
 
   // Applies simple sharpening to the row data to improve performance of the 1D Readers.
@@ -88,7 +102,7 @@ public class GlobalHistogramBinarizer extends Binarizer {
     LuminanceSource source = getLuminanceSource();
     int width = source.getWidth();
     int height = source.getHeight();
-    BitMatrix matrix = new BitMatrix(width, height);
+    BitMatrix matrix = context == null ? new BitMatrix(width, height) : context.getBlackMatrix(width, height);
 
     // Quickly calculates the histogram by sampling four rows from the image. This proved to be
     // more robust on the blackbox tests than sampling a diagonal as we used to do.
@@ -108,15 +122,21 @@ public class GlobalHistogramBinarizer extends Binarizer {
     // We delay reading the entire image luminance until the black point estimation succeeds.
     // Although we end up reading four rows twice, it is consistent with our motto of
     // "fail quickly" which is necessary for continuous scanning.
-    byte[] localLuminances = source.getMatrix();
-    for (int y = 0; y < height; y++) {
-      int offset = y * width;
-      for (int x = 0; x< width; x++) {
-        int pixel = localLuminances[offset + x] & 0xff;
-        if (pixel < blackPoint) {
-          matrix.set(x, y);
-        }
+    int[] bits = matrix.getBits();
+    int rowSize = matrix.getRowSize();
+    if (source.isMatrixCopied()) {
+      // Rather than copy the whole image, read it a row at a time
+      for (int y = 0; y < height; y++) {
+        byte[] localLuminances = source.getRow(y, luminances);
+        ThresholdKernel.thresholdRow(localLuminances, 0, width, blackPoint - 1, bits, y * rowSize);
       }
+      return matrix;
+    }
+    byte[] localLuminances = context == null ? source.getMatrix() :
+        source.getMatrix(context.getLuminances(width * height));
+    for (int y = 0; y < height; y++) {
+      // pixel < blackPoint
+      ThresholdKernel.thresholdRow(localLuminances, y * width, width, blackPoint - 1, bits, y * rowSize);
     }
 
     return matrix;
@@ -129,7 +149,7 @@ public class GlobalHistogramBinarizer extends Binarizer {
 
   private void initArrays(int luminanceSize) {
     if (luminances.length < luminanceSize) {
-      luminances = new byte[luminanceSize];
+      luminances = context == null ? new byte[luminanceSize] : context.getRowLuminances(luminanceSize);
     }
     for (int x = 0; x < LUMINANCE_BUCKETS; x++) {
       buckets[x] = 0;
@@ -41,10 +41,10 @@ public final class HybridBinarizer extends GlobalHistogramBinarizer {
 
   // This class uses 5x5 blocks to compute local luminance, where each block is 8x8 pixels.
   // So this is the smallest dimension in each axis we can accept.
-  private static final int BLOCK_SIZE_POWER = 3;
+  static final int BLOCK_SIZE_POWER = 3;
   private static final int BLOCK_SIZE = 1 << BLOCK_SIZE_POWER; // ...0100...00
-  private static final int BLOCK_SIZE_MASK = BLOCK_SIZE - 1;   // ...0011...11
-  private static final int MINIMUM_DIMENSION = BLOCK_SIZE * 5;
+  static final int BLOCK_SIZE_MASK = BLOCK_SIZE - 1;   // ...0011...11
+  static final int MINIMUM_DIMENSION = BLOCK_SIZE * 5;
   private static final int MIN_DYNAMIC_RANGE = 24;
 
   private BitMatrix matrix;
@@ -53,6 +53,13 @@ public final class HybridBinarizer extends GlobalHistogramBinarizer {
     super(source);
   }
 
+  /**
+   * @param context buffers to reuse between frames, or null
+   */
+  public HybridBinarizer(LuminanceSource source, DecodeContext context) {
+    super(source, context);
+  }
+
   /**
    * Calculates the final BitMatrix once for all requests. This could be called once from the
    * constructor instead, but there are some advantages to doing it lazily, such as making
@@ -67,7 +74,7 @@ public final class HybridBinarizer extends GlobalHistogramBinarizer {
     int width = source.getWidth();
     int height = source.getHeight();
     if (width >= MINIMUM_DIMENSION && height >= MINIMUM_DIMENSION) {
-      byte[] luminances = source.getMatrix();
+      DecodeContext context = getDecodeContext();
       int subWidth = width >> BLOCK_SIZE_POWER;
       if ((width & BLOCK_SIZE_MASK) != 0) {
         subWidth++;
@@ -76,10 +83,23 @@ public final class HybridBinarizer extends GlobalHistogramBinarizer {
       if ((height & BLOCK_SIZE_MASK) != 0) {
         subHeight++;
       }
-      int[][] blackPoints = calculateBlackPoints(luminances, subWidth, subHeight, width, height);
-
-      BitMatrix newMatrix = new BitMatrix(width, height);
-      calculateThresholdForBlock(luminances, subWidth, subHeight, width, height, blackPoints, newMatrix);
+      int[][] blackPoints = context == null ? new int[subHeight][subWidth] :
+          context.getBlackPoints(subWidth, subHeight);
+      BitMatrix newMatrix = context == null ? new BitMatrix(width, height) : context.getBlackMatrix(width, height);
+      if (source.isMatrixCopied()) {
+        // Rather than copy the whole image, read it twice a block row at a time
+        calculateBlackPoints(source, subWidth, subHeight, width, height, 0, subHeight, blackPoints);
+        correctLowContrastBlackPoints(blackPoints);
+        calculateThresholdForBlock(source, subWidth, subHeight, width, height, blackPoints, 0, subHeight,
+            newMatrix);
+      } else {
+        byte[] luminances = context == null ? source.getMatrix() :
+            source.getMatrix(context.getLuminances(width * height));
+        calculateBlackPoints(luminances, subWidth, subHeight, width, height, 0, subHeight, 0, blackPoints);
+        correctLowContrastBlackPoints(blackPoints);
+        calculateThresholdForBlock(luminances, subWidth, subHeight, width, height, blackPoints, 0, subHeight, 0,
+            newMatrix);
+      }
       matrix = newMatrix;
     } else {
       // If the image is too small, fall back to the global histogram approach.
@@ -93,39 +113,77 @@ public final class HybridBinarizer extends GlobalHistogramBinarizer {
     return new HybridBinarizer(source);
   }
 
+  /**
+   * As {@link #calculateThresholdForBlock(byte[], int, int, int, int, int[][], int, int, int, BitMatrix)},
+   * reading the luminances of one block row at a time from "source".
+   */
+  static void calculateThresholdForBlock(LuminanceSource source,
+                                         int subWidth,
+                                         int subHeight,
+                                         int width,
+                                         int height,
+                                         int[][] blackPoints,
+                                         int fromY,
+                                         int toY,
+                                         BitMatrix matrix) {
+    byte[] strip = null;
+    for (int y = fromY; y < toY; y++) {
+      int yoffset = getBlockTop(y, height);
+      strip = source.getRows(yoffset, BLOCK_SIZE, strip);
+      calculateThresholdForBlock(strip, subWidth, subHeight, width, height, blackPoints, y, y + 1, yoffset, matrix);
+    }
+  }
+
   /**
    * For each block in the image, calculate the average black point using a 5x5 grid
    * of the blocks around it. Also handles the corner cases (fractional blocks are computed based
    * on the last pixels in the row/column which are also used in the previous block).
+   *
+   * Only the block rows from "fromY" to "toY", exclusive, are thresholded; they write no pixel
+   * rows but their own, except that the last block row overlaps the one before when the height
+   * is not a multiple of the block size. "luminances" holds the image from pixel row "firstRow"
+   * down, at least as far as those block rows reach.
    */
-  private static void calculateThresholdForBlock(byte[] luminances,
-                                                 int subWidth,
-                                                 int subHeight,
-                                                 int width,
-                                                 int height,
-                                                 int[][] blackPoints,
-                                                 BitMatrix matrix) {
-    for (int y = 0; y < subHeight; y++) {
-      int yoffset = y << BLOCK_SIZE_POWER;
-      int maxYOffset = height - BLOCK_SIZE;
-      if (yoffset > maxYOffset) {
-        yoffset = maxYOffset;
-      }
+  static void calculateThresholdForBlock(byte[] luminances,
+                                         int subWidth,
+                                         int subHeight,
+                                         int width,
+                                         int height,
+                                         int[][] blackPoints,
+                                         int fromY,
+                                         int toY,
+                                         int firstRow,
+                                         BitMatrix matrix) {
+    int[] bits = matrix.getBits();
+    int rowSize = matrix.getRowSize();
+    int[] thresholds = new int[subWidth];
+    // The last block is moved left to end at the right edge, over some pixels of the one before
+    int lastXOffset = width - BLOCK_SIZE;
+    int lastAlignedX = (subWidth - 1) << BLOCK_SIZE_POWER;
+    for (int y = fromY; y < toY; y++) {
+      int yoffset = getBlockTop(y, height);
+      int top = cap(y, 2, subHeight - 3);
       for (int x = 0; x < subWidth; x++) {
-        int xoffset = x << BLOCK_SIZE_POWER;
-        int maxXOffset = width - BLOCK_SIZE;
-        if (xoffset > maxXOffset) {
-          xoffset = maxXOffset;
-        }
         int left = cap(x, 2, subWidth - 3);
-        int top = cap(y, 2, subHeight - 3);
         int sum = 0;
         for (int z = -2; z <= 2; z++) {
           int[] blackRow = blackPoints[top + z];
           sum += blackRow[left - 2] + blackRow[left - 1] + blackRow[left] + blackRow[left + 1] + blackRow[left + 2];
         }
-        int average = sum / 25;
-        thresholdBlock(luminances, xoffset, yoffset, average, width, matrix);
+        thresholds[x] = sum / 25;
+      }
+      // A pixel covered by two blocks is black if it is for either, so rows and words are or-ed
+      for (int yy = 0; yy < BLOCK_SIZE; yy++) {
+        int offset = (yoffset + yy - firstRow) * width;
+        int bitsOffset = (yoffset + yy) * rowSize;
+        ThresholdKernel.thresholdRow(luminances, offset, width, thresholds, bits, bitsOffset);
+        int threshold = thresholds[subWidth - 1];
+        for (int x = lastXOffset; x < lastAlignedX; x++) {
+          // Comparison needs to be <= so that black == 0 pixels are black even if the threshold is 0.
+          if ((luminances[offset + x] & 0xFF) <= threshold) {
+            bits[bitsOffset + (x >> 5)] |= 1 << (x & 31);
+          }
+        }
       }
     }
   }
@@ -135,21 +193,30 @@ public final class HybridBinarizer extends GlobalHistogramBinarizer {
   }
 
   /**
-   * Applies a single threshold to a block of pixels.
+   * @return the first pixel row of block row "y"; the last block row is moved up to end at the
+   *  bottom edge
    */
-  private static void thresholdBlock(byte[] luminances,
-                                     int xoffset,
-                                     int yoffset,
-                                     int threshold,
-                                     int stride,
-                                     BitMatrix matrix) {
-    for (int y = 0, offset = yoffset * stride + xoffset; y < BLOCK_SIZE; y++, offset += stride) {
-      for (int x = 0; x < BLOCK_SIZE; x++) {
-        // Comparison needs to be <= so that black == 0 pixels are black even if the threshold is 0.
-        if ((luminances[offset + x] & 0xFF) <= threshold) {
-          matrix.set(xoffset + x, yoffset + y);
-        }
-      }
+  private static int getBlockTop(int y, int height) {
+    return Math.min(y << BLOCK_SIZE_POWER, height - BLOCK_SIZE);
+  }
+
+  /**
+   * As {@link #calculateBlackPoints(byte[], int, int, int, int, int, int, int, int[][])}, reading
+   * the luminances of one block row at a time from "source".
+   */
+  static void calculateBlackPoints(LuminanceSource source,
+                                   int subWidth,
+                                   int subHeight,
+                                   int width,
+                                   int height,
+                                   int fromY,
+                                   int toY,
+                                   int[][] blackPoints) {
+    byte[] strip = null;
+    for (int y = fromY; y < toY; y++) {
+      int yoffset = getBlockTop(y, height);
+      strip = source.getRows(yoffset, BLOCK_SIZE, strip);
+      calculateBlackPoints(strip, subWidth, subHeight, width, height, y, y + 1, yoffset, blackPoints);
     }
   }
 
@@ -157,19 +224,23 @@ public final class HybridBinarizer extends GlobalHistogramBinarizer {
    * Calculates a single black point for each block of pixels and saves it away.
    * See the following thread for a discussion of this algorithm:
    *  http://groups.google.com/group/zxing/browse_thread/thread/d06efa2c35a7ddc0
+   *
+   * Only the block rows from "fromY" to "toY", exclusive, are read, from "luminances" holding the
+   * image from pixel row "firstRow" down. Blocks with little contrast
+   * depend on their already finished neighbors, so they are left as -(min + 1) for
+   * {@link #correctLowContrastBlackPoints(int[][])} to finish in order.
    */
-  private static int[][] calculateBlackPoints(byte[] luminances,
-                                              int subWidth,
-                                              int subHeight,
-                                              int width,
-                                              int height) {
-    int[][] blackPoints = new int[subHeight][subWidth];
-    for (int y = 0; y < subHeight; y++) {
-      int yoffset = y << BLOCK_SIZE_POWER;
-      int maxYOffset = height - BLOCK_SIZE;
-      if (yoffset > maxYOffset) {
-        yoffset = maxYOffset;
-      }
+  static void calculateBlackPoints(byte[] luminances,
+                                   int subWidth,
+                                   int subHeight,
+                                   int width,
+                                   int height,
+                                   int fromY,
+                                   int toY,
+                                   int firstRow,
+                                   int[][] blackPoints) {
+    for (int y = fromY; y < toY; y++) {
+      int yoffset = getBlockTop(y, height);
       for (int x = 0; x < subWidth; x++) {
         int xoffset = x << BLOCK_SIZE_POWER;
         int maxXOffset = width - BLOCK_SIZE;
@@ -179,7 +250,7 @@ public final class HybridBinarizer extends GlobalHistogramBinarizer {
         int sum = 0;
         int min = 0xFF;
         int max = 0;
-        for (int yy = 0, offset = yoffset * width + xoffset; yy < BLOCK_SIZE; yy++, offset += width) {
+        for (int yy = 0, offset = (yoffset - firstRow) * width + xoffset; yy < BLOCK_SIZE; yy++, offset += width) {
           for (int xx = 0; xx < BLOCK_SIZE; xx++) {
             int pixel = luminances[offset + xx] & 0xFF;
             sum += pixel;
@@ -205,33 +276,50 @@ public final class HybridBinarizer extends GlobalHistogramBinarizer {
         // The default estimate is the average of the values in the block.
         int average = sum >> (BLOCK_SIZE_POWER * 2);
         if (max - min <= MIN_DYNAMIC_RANGE) {
-          // If variation within the block is low, assume this is a block with only light or only
-          // dark pixels. In that case we do not want to use the average, as it would divide this
-          // low contrast area into black and white pixels, essentially creating data out of noise.
-          //
-          // The default assumption is that the block is light/background. Since no estimate for
-          // the level of dark pixels exists locally, use half the min for the block.
-          average = min / 2;
-
-          if (y > 0 && x > 0) {
-            // Correct the "white background" assumption for blocks that have neighbors by comparing
-            // the pixels in this block to the previously calculated black points. This is based on
-            // the fact that dark barcode symbology is always surrounded by some amount of light
-            // background for which reasonable black point estimates were made. The bp estimated at
-            // the boundaries is used for the interior.
-
-            // The (min < bp) is arbitrary but works better than other heuristics that were tried.
-            int averageNeighborBlackPoint =
-                (blackPoints[y - 1][x] + (2 * blackPoints[y][x - 1]) + blackPoints[y - 1][x - 1]) / 4;
-            if (min < averageNeighborBlackPoint) {
-              average = averageNeighborBlackPoint;
-            }
-          }
+          average = -(min + 1);
         }
         blackPoints[y][x] = average;
       }
     }
-    return blackPoints;
+  }
+
+  /**
+   * Finishes the black points of the low contrast blocks left by
+   * {@link #calculateBlackPoints(byte[], int, int, int, int, int, int, int, int[][])}, row by row.
+   */
+  static void correctLowContrastBlackPoints(int[][] blackPoints) {
+    for (int y = 0; y < blackPoints.length; y++) {
+      int[] blackRow = blackPoints[y];
+      for (int x = 0; x < blackRow.length; x++) {
+        if (blackRow[x] >= 0) {
+          continue;
+        }
+        int min = -blackRow[x] - 1;
+        // If variation within the block is low, assume this is a block with only light or only
+        // dark pixels. In that case we do not want to use the average, as it would divide this
+        // low contrast area into black and white pixels, essentially creating data out of noise.
+        //
+        // The default assumption is that the block is light/background. Since no estimate for
+        // the level of dark pixels exists locally, use half the min for the block.
+        int average = min / 2;
+
+        if (y > 0 && x > 0) {
+          // Correct the "white background" assumption for blocks that have neighbors by comparing
+          // the pixels in this block to the previously calculated black points. This is based on
+          // the fact that dark barcode symbology is always surrounded by some amount of light
+          // background for which reasonable black point estimates were made. The bp estimated at
+          // the boundaries is used for the interior.
+
+          // The (min < bp) is arbitrary but works better than other heuristics that were tried.
+          int averageNeighborBlackPoint =
+              (blackPoints[y - 1][x] + (2 * blackRow[x - 1]) + blackPoints[y - 1][x - 1]) / 4;
+          if (min < averageNeighborBlackPoint) {
+            average = averageNeighborBlackPoint;
+          }
+        }
+        blackRow[x] = average;
+      }
+    }
   }
 
 }
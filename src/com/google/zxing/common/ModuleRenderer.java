@@ -0,0 +1,58 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.common;
+
+import java.io.IOException;
+
+/**
+ * Feeds the dark runs of a {@link BitMatrix} to a {@link ModuleSink}.
+ */
+public final class ModuleRenderer {
+
+  private ModuleRenderer() {
+  }
+
+  /**
+   * @param matrix matrix with one bit per module, set for dark modules
+   * @param quietZone number of light modules to add on every side
+   * @param sink receives the runs
+   */
+  public static void render(BitMatrix matrix, int quietZone, ModuleSink sink) throws IOException {
+    int width = matrix.getWidth();
+    int height = matrix.getHeight();
+    sink.start(width + 2 * quietZone, height + 2 * quietZone);
+    for (int y = 0; y < quietZone; y++) {
+      sink.endRow(y);
+    }
+    BitArray row = new BitArray(width);
+    for (int y = 0; y < height; y++) {
+      row = matrix.getRow(y, row);
+      int x = row.getNextSet(0);
+      while (x < width) {
+        int end = Math.min(row.getNextUnset(x), width);
+        sink.run(quietZone + x, quietZone + y, end - x);
+        x = end < width ? row.getNextSet(end) : width;
+      }
+      sink.endRow(quietZone + y);
+    }
+    for (int y = quietZone + height; y < height + 2 * quietZone; y++) {
+      sink.endRow(y);
+    }
+    sink.finish();
+  }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.common;
+
+import java.io.IOException;
+
+/**
+ * Receives a barcode one module row at a time, as horizontal runs of dark modules, so that it can
+ * be scaled and written out without an upscaled {@link BitMatrix} in between. Coordinates are in
+ * modules and include the quiet zone.
+ *
+ * The calls come in order: {@link #start(int, int)} once, then for every row from top to bottom
+ * its runs from left to right followed by {@link #endRow(int)}, then {@link #finish()} once.
+ *
+ * @see ModuleRenderer
+ */
+public interface ModuleSink {
+
+  /**
+   * @param width width in modules, including the quiet zone on both sides
+   * @param height height in modules, including the quiet zone on both sides
+   */
+  void start(int width, int height) throws IOException;
+
+  /**
+   * @param x first dark module of the run
+   * @param y row of the run
+   * @param length number of dark modules in the run, at least 1
+   */
+  void run(int x, int y, int length) throws IOException;
+
+  void endRow(int y) throws IOException;
+
+  void finish() throws IOException;
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.common;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A {@link HybridBinarizer} that spreads the work for large images over a fork/join pool, giving
+ * the same matrix bit for bit.
+ *
+ * The black points are computed for ranges of block rows in parallel. The few blocks with low
+ * contrast take their value from neighbors that must be finished first, so they are completed in
+ * a quick serial pass afterwards. Thresholding then runs in parallel again: a range of block rows
+ * only reads the black points two block rows above and below it, and writes only its own pixel
+ * rows, which are whole words of the {@link BitMatrix}.
+ */
+public final class ParallelHybridBinarizer extends GlobalHistogramBinarizer {
+
+  // Block rows per task, so that a task reads at least a few hundred pixel rows
+  private static final int MIN_BLOCK_ROWS = 32;
+
+  private final ForkJoinPool pool;
+  private BitMatrix matrix;
+
+  public ParallelHybridBinarizer(LuminanceSource source) {
+    this(source, null);
+  }
+
+  /**
+   * @param pool pool to run on, or null for a pool shared by all parallel binarizers
+   */
+  public ParallelHybridBinarizer(LuminanceSource source, ForkJoinPool pool) {
+    this(source, pool, null);
+  }
+
+  /**
+   * @param pool pool to run on, or null for a pool shared by all parallel binarizers
+   * @param context buffers to reuse between frames, or null
+   */
+  public ParallelHybridBinarizer(LuminanceSource source, ForkJoinPool pool, DecodeContext context) {
+    super(source, context);
+    this.pool = pool;
+  }
+
+  @Override
+  public BitMatrix getBlackMatrix() throws NotFoundException {
+    if (matrix != null) {
+      return matrix;
+    }
+    LuminanceSource source = getLuminanceSource();
+    int width = source.getWidth();
+    int height = source.getHeight();
+    if (width >= HybridBinarizer.MINIMUM_DIMENSION && height >= HybridBinarizer.MINIMUM_DIMENSION) {
+      DecodeContext context = getDecodeContext();
+      // Rather than copy the whole image, each task reads its block rows one at a time, twice
+      byte[] luminances = source.isMatrixCopied() ? null : context == null ? source.getMatrix() :
+          source.getMatrix(context.getLuminances(width * height));
+      int subWidth = width >> HybridBinarizer.BLOCK_SIZE_POWER;
+      if ((width & HybridBinarizer.BLOCK_SIZE_MASK) != 0) {
+        subWidth++;
+      }
+      int subHeight = height >> HybridBinarizer.BLOCK_SIZE_POWER;
+      if ((height & HybridBinarizer.BLOCK_SIZE_MASK) != 0) {
+        subHeight++;
+      }
+      ForkJoinPool executor = pool == null ? BinarizerPool.POOL : pool;
+
+      int[][] blackPoints = context == null ? new int[subHeight][subWidth] :
+          context.getBlackPoints(subWidth, subHeight);
+      executor.invoke(new BlockRows(source, luminances, subWidth, subHeight, width, height, blackPoints, null,
+          0, subHeight));
+      HybridBinarizer.correctLowContrastBlackPoints(blackPoints);
+
+      BitMatrix newMatrix = context == null ? new BitMatrix(width, height) : context.getBlackMatrix(width, height);
+      executor.invoke(new BlockRows(source, luminances, subWidth, subHeight, width, height, blackPoints, newMatrix,
+          0, subHeight));
+      matrix = newMatrix;
+    } else {
+      // If the image is too small, fall back to the global histogram approach.
+      matrix = super.getBlackMatrix();
+    }
+    return matrix;
+  }
+
+  @Override
+  public Binarizer createBinarizer(LuminanceSource source) {
+    return new ParallelHybridBinarizer(source, pool);
+  }
+
+  /**
+   * Computes the black points of a range of block rows or, once they are all known and "matrix"
+   * is given, thresholds them, splitting the range in halves while it is large. Without
+   * "luminances" they are read from "source".
+   */
+  private static final class BlockRows extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LuminanceSource source;
+    private final byte[] luminances;
+    private final int subWidth;
+    private final int subHeight;
+    private final int width;
+    private final int height;
+    private final int[][] blackPoints;
+    private final BitMatrix matrix;
+    private final int fromY;
+    private final int toY;
+
+    BlockRows(LuminanceSource source, byte[] luminances, int subWidth, int subHeight, int width, int height,
+              int[][] blackPoints, BitMatrix matrix, int fromY, int toY) {
+      this.source = source;
+      this.luminances = luminances;
+      this.subWidth = subWidth;
+      this.subHeight = subHeight;
+      this.width = width;
+      this.height = height;
+      this.blackPoints = blackPoints;
+      this.matrix = matrix;
+      this.fromY = fromY;
+      this.toY = toY;
+    }
+
+    @Override
+    protected void compute() {
+      if (toY - fromY >= 2 * MIN_BLOCK_ROWS) {
+        // Both halves keep at least MIN_BLOCK_ROWS block rows, so the last block row, which is
+        // moved up over pixel rows of the one before when the height is not a multiple of the
+        // block size, always stays in the same task as that one
+        int middle = (fromY + toY) >>> 1;
+        invokeAll(new BlockRows(source, luminances, subWidth, subHeight, width, height, blackPoints, matrix,
+                fromY, middle),
+            new BlockRows(source, luminances, subWidth, subHeight, width, height, blackPoints, matrix,
+                middle, toY));
+      } else if (luminances == null) {
+        if (matrix == null) {
+          HybridBinarizer.calculateBlackPoints(source, subWidth, subHeight, width, height, fromY, toY,
+              blackPoints);
+        } else {
+          HybridBinarizer.calculateThresholdForBlock(source, subWidth, subHeight, width, height,
+              blackPoints, fromY, toY, matrix);
+        }
+      } else if (matrix == null) {
+        HybridBinarizer.calculateBlackPoints(luminances, subWidth, subHeight, width, height, fromY, toY, 0,
+            blackPoints);
+      } else {
+        HybridBinarizer.calculateThresholdForBlock(luminances, subWidth, subHeight, width, height,
+            blackPoints, fromY, toY, 0, matrix);
+      }
+    }
+  }
+
+  private static final class BinarizerPool {
+    static final ForkJoinPool POOL = new ForkJoinPool();
+  }
+
+}
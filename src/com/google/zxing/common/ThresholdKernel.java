@@ -0,0 +1,101 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.common;
+
+/**
+ * Turns rows of luminance bytes into the words of a {@link BitMatrix} row, a whole word at a time.
+ * Each comparison is done without a branch, as the sign of threshold - luminance, and each word is
+ * built in a local and stored once, instead of one read-modify-write of the matrix per black
+ * pixel. The simple counted loops are left for the JIT to unroll and vectorize.
+ */
+final class ThresholdKernel {
+
+  private ThresholdKernel() {
+  }
+
+  /**
+   * @return 1 if "luminance" (0-255) is at most "threshold", else 0
+   */
+  private static int isBlack(int threshold, byte luminance) {
+    return ((threshold - (luminance & 0xFF)) >>> 31) ^ 1;
+  }
+
+  /**
+   * Sets the bits of the pixels whose luminance is at most "threshold".
+   *
+   * @param luminances luminances of the row start at "offset"
+   * @param bits words of the row start at "bitsOffset"; set bits are or-ed in
+   */
+  static void thresholdRow(byte[] luminances, int offset, int width, int threshold, int[] bits, int bitsOffset) {
+    int fullWords = width >> 5;
+    for (int word = 0; word < fullWords; word++) {
+      int start = offset + (word << 5);
+      int value = 0;
+      for (int i = 0; i < 32; i++) {
+        value |= isBlack(threshold, luminances[start + i]) << i;
+      }
+      bits[bitsOffset + word] |= value;
+    }
+    int rest = width & 31;
+    if (rest != 0) {
+      int start = offset + (fullWords << 5);
+      int value = 0;
+      for (int i = 0; i < rest; i++) {
+        value |= isBlack(threshold, luminances[start + i]) << i;
+      }
+      bits[bitsOffset + fullWords] |= value;
+    }
+  }
+
+  /**
+   * Sets the bits of the pixels whose luminance is at most the threshold of their group of 8
+   * pixels, "thresholds[x / 8]".
+   *
+   * @param luminances luminances of the row start at "offset"
+   * @param bits words of the row start at "bitsOffset"; set bits are or-ed in
+   */
+  static void thresholdRow(byte[] luminances, int offset, int width, int[] thresholds, int[] bits, int bitsOffset) {
+    int fullWords = width >> 5;
+    for (int word = 0; word < fullWords; word++) {
+      int start = offset + (word << 5);
+      int group = word << 2;
+      int t0 = thresholds[group];
+      int t1 = thresholds[group + 1];
+      int t2 = thresholds[group + 2];
+      int t3 = thresholds[group + 3];
+      int value = 0;
+      for (int i = 0; i < 8; i++) {
+        value |= isBlack(t0, luminances[start + i]) << i |
+            isBlack(t1, luminances[start + 8 + i]) << (8 + i) |
+            isBlack(t2, luminances[start + 16 + i]) << (16 + i) |
+            isBlack(t3, luminances[start + 24 + i]) << (24 + i);
+      }
+      bits[bitsOffset + word] |= value;
+    }
+    int rest = width & 31;
+    if (rest != 0) {
+      int start = offset + (fullWords << 5);
+      int group = fullWords << 2;
+      int value = 0;
+      for (int i = 0; i < rest; i++) {
+        value |= isBlack(thresholds[group + (i >> 3)], luminances[start + i]) << i;
+      }
+      bits[bitsOffset + fullWords] |= value;
+    }
+  }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2008 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.common.reedsolomon;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Solves the linear system behind {@link ReedSolomonEncoder#encodeNoneSym(int[], boolean[], int)}:
+ * the n - k free symbols of a codeword are chosen so that the codeword evaluates to zero at the
+ * n - k roots of the generator.</p>
+ *
+ * <p>The coefficient matrix only depends on the field, n, k and which symbols are free, so its
+ * inverse is computed once and kept in a small process-wide LRU cache. Solving a block is then a
+ * single matrix-vector product, done with the field's product table where it has one.</p>
+ */
+final class FreeSymbolSolver {
+
+  private static final int MAX_CACHED_SYSTEMS = 256;
+
+  private static final Map<Key, int[][]> INVERSES =
+      new LinkedHashMap<Key, int[][]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, int[][]> eldest) {
+          return size() > MAX_CACHED_SYSTEMS;
+        }
+      };
+
+  private FreeSymbolSolver() {
+  }
+
+  /**
+   * @param field field the code is defined over
+   * @param flag true for the symbols that are fixed, false for the free ones
+   * @param k number of fixed symbols
+   * @param y syndromes of the fixed symbols, one per generator root
+   * @return values of the free symbols in codeword order, or null if the system is singular
+   */
+  static int[] solve(GenericGF field, boolean[] flag, int k, int[] y) {
+    int[][] inverse = getInverse(field, flag, k);
+    if (inverse == null) {
+      return null;
+    }
+    int m = y.length;
+    int[] x = new int[m];
+    byte[] productTable = field.getProductTable();
+    for (int i = 0; i < m; i++) {
+      int[] row = inverse[i];
+      int sum = 0;
+      if (productTable != null) {
+        for (int j = 0; j < m; j++) {
+          sum ^= productTable[(row[j] << 8) | y[j]];
+        }
+        sum &= 0xFF;
+      } else {
+        for (int j = 0; j < m; j++) {
+          sum ^= field.multiply(row[j], y[j]);
+        }
+      }
+      x[i] = sum;
+    }
+    return x;
+  }
+
+  private static int[][] getInverse(GenericGF field, boolean[] flag, int k) {
+    Key key = new Key(field, flag, k);
+    synchronized (INVERSES) {
+      int[][] cached = INVERSES.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    int[][] inverse = invert(field, flag, k);
+    if (inverse != null) {
+      synchronized (INVERSES) {
+        INVERSES.put(key, inverse);
+      }
+    }
+    return inverse;
+  }
+
+  /**
+   * Inverts a[i][j] = alpha^(i * (n - 1 - c_j)), c_j being the position of the j-th free symbol,
+   * by Gauss-Jordan elimination.
+   */
+  private static int[][] invert(GenericGF field, boolean[] flag, int k) {
+    int n = flag.length;
+    int m = n - k;
+    int order = field.getSize() - 1;
+    int[][] a = new int[m][2 * m];
+    int count = 0;
+    for (int c = 0; c < n; c++) {
+      if (!flag[c]) {
+        int power = n - 1 - c;
+        for (int i = 0; i < m; i++) {
+          a[i][count] = field.expTable[(i * power) % order];
+        }
+        count++;
+      }
+    }
+    for (int i = 0; i < m; i++) {
+      a[i][m + i] = 1;
+    }
+
+    for (int col = 0; col < m; col++) {
+      int pivot = col;
+      while (pivot < m && a[pivot][col] == 0) {
+        pivot++;
+      }
+      if (pivot == m) {
+        return null;
+      }
+      int[] tmp = a[pivot];
+      a[pivot] = a[col];
+      a[col] = tmp;
+
+      int[] pivotRow = a[col];
+      int scale = field.inverse(pivotRow[col]);
+      for (int j = col; j < 2 * m; j++) {
+        pivotRow[j] = field.multiply(pivotRow[j], scale);
+      }
+      for (int i = 0; i < m; i++) {
+        int factor = a[i][col];
+        if (i == col || factor == 0) {
+          continue;
+        }
+        int[] row = a[i];
+        for (int j = col; j < 2 * m; j++) {
+          row[j] ^= field.multiply(pivotRow[j], factor);
+        }
+      }
+    }
+
+    int[][] inverse = new int[m][];
+    for (int i = 0; i < m; i++) {
+      inverse[i] = Arrays.copyOfRange(a[i], m, 2 * m);
+    }
+    return inverse;
+  }
+
+  private static final class Key {
+    private final GenericGF field;
+    private final int k;
+    private final boolean[] flag;
+    private final int hash;
+
+    Key(GenericGF field, boolean[] flag, int k) {
+      this.field = field;
+      this.k = k;
+      this.flag = flag.clone();
+      this.hash = (System.identityHashCode(field) * 31 + k) * 31 + Arrays.hashCode(flag);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return field == other.field && k == other.k && Arrays.equals(flag, other.flag);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+}
@@ -16,6 +16,8 @@
 
 package com.google.zxing.common.reedsolomon;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /**
  * <p>This class contains utility methods for performing mathematical operations over
  * the Galois Fields. Operations use a given primitive polynomial in calculations.</p>
@@ -38,10 +40,22 @@ public final class GenericGF {
   public static final GenericGF AZTEC_DATA_8 = DATA_MATRIX_FIELD_256;
   public static final GenericGF MAXICODE_FIELD_64 = AZTEC_DATA_6;
 
+  static {
+    // Every block size of QR (up to 30 EC codewords) and Data Matrix (up to 68), and the Aztec
+    // mode message, so that even the first code encoded skips building generators
+    QR_CODE_FIELD_256.getGenerator(30);
+    DATA_MATRIX_FIELD_256.getGenerator(68);
+    AZTEC_PARAM.getGenerator(AZTEC_PARAM.getSize() - 1);
+  }
+
   public final int[] expTable;
   public final int[] logTable;
+  private final byte[] productTable;
+  private final int[] inverseTable;
   private final GenericGFPoly zero;
   private final GenericGFPoly one;
+  // generators.get(d) is the Reed-Solomon generator of degree d, built on first use
+  private final AtomicReferenceArray<GenericGFPoly> generators;
   private final int size;
   private final int primitive;
   private final int generatorBase;
@@ -77,8 +91,25 @@ public final class GenericGF {
       logTable[expTable[i]] = i;
     }
     // logTable[0] == 0 but this should never be used
+    if (size == 256) {
+      // 64KB is cheap for the byte-sized fields, and lets the RS code multiply without the
+      // log/exp round trip, the modulo and the zero checks
+      productTable = new byte[size * size];
+      inverseTable = new int[size];
+      for (int i = 1; i < size; i++) {
+        for (int j = 1; j < size; j++) {
+          productTable[(i << 8) | j] = (byte) expTable[(logTable[i] + logTable[j]) % (size - 1)];
+        }
+        inverseTable[i] = expTable[size - logTable[i] - 1];
+      }
+    } else {
+      productTable = null;
+      inverseTable = null;
+    }
     zero = new GenericGFPoly(this, new int[]{0});
     one = new GenericGFPoly(this, new int[]{1});
+    generators = new AtomicReferenceArray<>(size);
+    generators.set(0, one);
   }
 
   GenericGFPoly getZero() {
@@ -89,6 +120,26 @@ public final class GenericGF {
     return one;
   }
 
+  /**
+   * @return the Reed-Solomon generator polynomial of the given degree,
+   *  (x - a^b)(x - a^(b+1))...(x - a^(b+degree-1)). Generators are shared by all threads; one
+   *  that is built by two threads at once is simply built twice, to the same value.
+   */
+  GenericGFPoly getGenerator(int degree) {
+    int cached = Math.min(degree, size - 1);
+    GenericGFPoly generator;
+    while ((generator = generators.get(cached)) == null) {
+      cached--;
+    }
+    for (int d = cached + 1; d <= degree; d++) {
+      generator = generator.multiply(new GenericGFPoly(this, new int[] { 1, exp(d - 1 + generatorBase) }));
+      if (d < size) {
+        generators.compareAndSet(d, null, generator);
+      }
+    }
+    return generator;
+  }
+
   /**
    * @return the monomial representing coefficient * x^degree
    */
@@ -137,6 +188,9 @@ public final class GenericGF {
     if (a == 0) {
       throw new ArithmeticException();
     }
+    if (inverseTable != null) {
+      return inverseTable[a];
+    }
     return expTable[size - logTable[a] - 1];
   }
 
@@ -144,12 +198,23 @@ public final class GenericGF {
    * @return product of a and b in GF(size)
    */
   int multiply(int a, int b) {
+    if (productTable != null) {
+      return productTable[(a << 8) | b] & 0xFF;
+    }
     if (a == 0 || b == 0) {
       return 0;
     }
     return expTable[(logTable[a] + logTable[b]) % (size - 1)];
   }
 
+  /**
+   * @return table of all products in GF(256), the product of a and b being at index
+   *  {@code (a << 8) | b}; null for other field sizes. Must not be modified.
+   */
+  byte[] getProductTable() {
+    return productTable;
+  }
+
   public int getSize() {
     return size;
   }
@@ -109,6 +109,14 @@ final class GenericGFPoly {
       return result;
     }
     int result = coefficients[0];
+    byte[] productTable = field.getProductTable();
+    if (productTable != null) {
+      int row = a << 8;
+      for (int i = 1; i < size; i++) {
+        result = (productTable[row | result] & 0xFF) ^ coefficients[i];
+      }
+      return result;
+    }
     for (int i = 1; i < size; i++) {
       result = GenericGF.addOrSubtract(field.multiply(a, result), coefficients[i]);
     }
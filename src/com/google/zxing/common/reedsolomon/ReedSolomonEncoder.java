@@ -16,8 +16,7 @@
 
 package com.google.zxing.common.reedsolomon;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * <p>Implements Reed-Solomon enbcoding, as the name implies.</p>
@@ -28,25 +27,17 @@ import java.util.List;
 public final class ReedSolomonEncoder {
 
   private final GenericGF field;
-  private final List<GenericGFPoly> cachedGenerators;
 
+  /**
+   * @param field field to encode over. The generator polynomials are kept by the field and shared
+   *  by all encoders, so creating an encoder is cheap and it may be used from any thread.
+   */
   public ReedSolomonEncoder(GenericGF field) {
     this.field = field;
-    this.cachedGenerators = new ArrayList<>();
-    cachedGenerators.add(new GenericGFPoly(field, new int[]{1}));
   }
 
   private GenericGFPoly buildGenerator(int degree) {
-    if (degree >= cachedGenerators.size()) {
-      GenericGFPoly lastGenerator = cachedGenerators.get(cachedGenerators.size() - 1);
-      for (int d = cachedGenerators.size(); d <= degree; d++) {
-        GenericGFPoly nextGenerator = lastGenerator.multiply(
-            new GenericGFPoly(field, new int[] { 1, field.exp(d - 1 + field.getGeneratorBase()) }));
-        cachedGenerators.add(nextGenerator);
-        lastGenerator = nextGenerator;
-      }
-    }
-    return cachedGenerators.get(degree);
+    return field.getGenerator(degree);
   }
 
   public void encode(int[] toEncode, int ecBytes) {
@@ -71,14 +62,67 @@ public final class ReedSolomonEncoder {
     System.arraycopy(coefficients, 0, toEncode, dataBytes + numZeroCoefficients, coefficients.length);
   }
 
+  /**
+   * Computes the {@code ecBytes} error correction symbols for the {@code dataBytes} symbols
+   * starting at {@code data[dataOffset]} and writes them to {@code ec} starting at
+   * {@code ecOffset}. This is the polynomial division done as a shift register over the generator
+   * coefficients, so nothing is allocated once the generator of that degree has been built.
+   * Only for fields whose symbols fit in a byte.
+   */
+  public void encode(byte[] data, int dataOffset, int dataBytes, byte[] ec, int ecOffset, int ecBytes) {
+    if (ecBytes == 0) {
+      throw new IllegalArgumentException("No error correction bytes");
+    }
+    if (dataBytes <= 0) {
+      throw new IllegalArgumentException("No data bytes provided");
+    }
+    if (field.getSize() > 256) {
+      throw new IllegalArgumentException("Symbols of " + field + " do not fit in a byte");
+    }
+    // generator[0] is the leading 1, generator[1..ecBytes] the lower order coefficients
+    int[] generator = buildGenerator(ecBytes).getCoefficients();
+    byte[] productTable = field.getProductTable();
+    int last = ecOffset + ecBytes - 1;
+    Arrays.fill(ec, ecOffset, last + 1, (byte) 0);
+    for (int i = 0; i < dataBytes; i++) {
+      int feedback = (data[dataOffset + i] ^ ec[ecOffset]) & 0xFF;
+      if (productTable != null) {
+        int row = feedback << 8;
+        for (int j = 1; j < ecBytes; j++) {
+          ec[ecOffset + j - 1] = (byte) (ec[ecOffset + j] ^ productTable[row | generator[j]]);
+        }
+        ec[last] = productTable[row | generator[ecBytes]];
+      } else {
+        for (int j = 1; j < ecBytes; j++) {
+          ec[ecOffset + j - 1] = (byte) (ec[ecOffset + j] ^ field.multiply(feedback, generator[j]));
+        }
+        ec[last] = (byte) field.multiply(feedback, generator[ecBytes]);
+      }
+    }
+  }
+
+  /**
+   * Fills the symbols whose {@code flag} is false so that {@code toEncode} becomes a valid
+   * codeword, keeping the k symbols whose flag is true unchanged.
+   */
   public void encodeNoneSym(int[] toEncode, boolean[] flag, int k){
     int n = toEncode.length;
-    int[][] a = new int[n - k][n - k + 1];
-    getMatrix(a, flag, n, k);
-
     int[] Y = new int[n - k];
     getY(Y, toEncode, flag, n, k);
 
+    int[] x = FreeSymbolSolver.solve(field, flag, k, Y);
+    if (x != null) {
+      int count = 0;
+      for(int i = 0; i < n; i++){
+        if(flag[i] == false)
+          toEncode[i] = x[count++];
+      }
+      return;
+    }
+
+    int[][] a = new int[n - k][n - k + 1];
+    getMatrix(a, flag, n, k);
+
     // 增广矩阵
     for(int i = 0; i < n - k; i++)
       a[i][n - k] = Y[i];
@@ -110,6 +154,22 @@ public final class ReedSolomonEncoder {
   }
 
   private void getY(int[] Y, int[] code, boolean[] flag, int n, int k){
+    byte[] productTable = field.getProductTable();
+    if (productTable != null) {
+      // Y[i] is the fixed part of the codeword evaluated at alpha^i, by Horner's rule
+      for (int i = 0; i < n - k; i++) {
+        int row = field.expTable[i] << 8;
+        int y = 0;
+        for (int j = 0; j < n; j++) {
+          y = productTable[row | y] & 0xFF;
+          if (flag[j]) {
+            y ^= code[j];
+          }
+        }
+        Y[i] = y;
+      }
+      return;
+    }
     int[] ci = new int[k];
     int count = 0;
     for(int i = 0; i < n; i++){
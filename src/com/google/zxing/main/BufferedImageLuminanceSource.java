@@ -21,6 +21,12 @@ import com.google.zxing.LuminanceSource;
 import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 
 /**
@@ -37,6 +43,10 @@ public final class BufferedImageLuminanceSource extends LuminanceSource {
   private final BufferedImage image;
   private final int left;
   private final int top;
+  // The bytes of the gray image, if its raster allows reading them directly, else null
+  private final byte[] luminances;
+  private final int dataOffset;
+  private final int dataStride;
 
   public BufferedImageLuminanceSource(BufferedImage image) {
     this(image, 0, 0, image.getWidth(), image.getHeight());
@@ -56,33 +66,125 @@ public final class BufferedImageLuminanceSource extends LuminanceSource {
 
       this.image = new BufferedImage(sourceWidth, sourceHeight, BufferedImage.TYPE_BYTE_GRAY);
 
-      WritableRaster raster = this.image.getRaster();
-      int[] buffer = new int[width];
-      for (int y = top; y < top + height; y++) {
-        image.getRGB(left, y, width, 1, buffer, 0, sourceWidth);
-        for (int x = 0; x < width; x++) {
-          int pixel = buffer[x];
-
-          // The color of fully-transparent pixels is irrelevant. They are often, technically, fully-transparent
-          // black (0 alpha, and then 0 RGB). They are often used, of course as the "white" area in a
-          // barcode image. Force any such pixel to be white:
-          if ((pixel & 0xFF000000) == 0) {
-            pixel = 0xFFFFFFFF; // = white
+      // A new gray image is one packed plane, so luminances go straight into its bytes
+      byte[] plane = ((DataBufferByte) this.image.getRaster().getDataBuffer()).getData();
+      if (!convertRaster(image, left, top, width, height, plane)) {
+        int[] buffer = new int[width];
+        for (int y = top; y < top + height; y++) {
+          image.getRGB(left, y, width, 1, buffer, 0, sourceWidth);
+          int offset = y * sourceWidth + left;
+          for (int x = 0; x < width; x++) {
+            int pixel = buffer[x];
+
+            // The color of fully-transparent pixels is irrelevant. They are often, technically, fully-transparent
+            // black (0 alpha, and then 0 RGB). They are often used, of course as the "white" area in a
+            // barcode image. Force any such pixel to be white:
+            if ((pixel & 0xFF000000) == 0) {
+              pixel = 0xFFFFFFFF; // = white
+            }
+
+            plane[offset + x] = (byte) luminance((pixel >> 16) & 0xFF, (pixel >> 8) & 0xFF, pixel & 0xFF);
           }
-
-          // .229R + 0.587G + 0.114B (YUV/YIQ for PAL and NTSC)
-          buffer[x] =
-              (306 * ((pixel >> 16) & 0xFF) +
-               601 * ((pixel >> 8) & 0xFF) +
-               117 * (pixel & 0xFF) +
-               0x200) >> 10;
         }
-        raster.setPixels(left, y, width, 1, buffer);
       }
 
     }
     this.left = left;
     this.top = top;
+
+    WritableRaster raster = this.image.getRaster();
+    SampleModel model = raster.getSampleModel();
+    DataBuffer buffer = raster.getDataBuffer();
+    if (model instanceof ComponentSampleModel && buffer instanceof DataBufferByte &&
+        ((ComponentSampleModel) model).getPixelStride() == 1) {
+      ComponentSampleModel components = (ComponentSampleModel) model;
+      luminances = ((DataBufferByte) buffer).getData();
+      dataStride = components.getScanlineStride();
+      dataOffset = buffer.getOffset() + components.getOffset(-raster.getSampleModelTranslateX(),
+          -raster.getSampleModelTranslateY());
+    } else {
+      luminances = null;
+      dataStride = 0;
+      dataOffset = 0;
+    }
+  }
+
+  /**
+   * .229R + 0.587G + 0.114B (YUV/YIQ for PAL and NTSC)
+   */
+  private static int luminance(int r, int g, int b) {
+    return (306 * r + 601 * g + 117 * b + 0x200) >> 10;
+  }
+
+  /**
+   * Converts the common types of color images by reading their data buffer directly, rather than
+   * going through the color model for every pixel with {@link BufferedImage#getRGB}.
+   *
+   * @param plane the bytes of a gray image of the same size as "image", packed
+   * @return false if "image" is not laid out as expected for one of those types
+   */
+  private static boolean convertRaster(BufferedImage image, int left, int top, int width, int height,
+                                       byte[] plane) {
+    WritableRaster raster = image.getRaster();
+    SampleModel model = raster.getSampleModel();
+    DataBuffer buffer = raster.getDataBuffer();
+    int sourceWidth = image.getWidth();
+    // Where pixel (left, top) of the image is in the sample model
+    int modelX = left - raster.getSampleModelTranslateX();
+    int modelY = top - raster.getSampleModelTranslateY();
+
+    switch (image.getType()) {
+      case BufferedImage.TYPE_3BYTE_BGR:
+      case BufferedImage.TYPE_4BYTE_ABGR: {
+        if (!(model instanceof ComponentSampleModel) || !(buffer instanceof DataBufferByte)) {
+          return false;
+        }
+        ComponentSampleModel components = (ComponentSampleModel) model;
+        byte[] data = ((DataBufferByte) buffer).getData();
+        int pixelStride = components.getPixelStride();
+        int scanlineStride = components.getScanlineStride();
+        int[] bandOffsets = components.getBandOffsets();
+        int red = bandOffsets[0];
+        int green = bandOffsets[1];
+        int blue = bandOffsets[2];
+        boolean hasAlpha = bandOffsets.length > 3;
+        int alpha = hasAlpha ? bandOffsets[3] : 0;
+        for (int y = 0; y < height; y++) {
+          int inputOffset = buffer.getOffset() + (modelY + y) * scanlineStride + modelX * pixelStride;
+          int outputOffset = (top + y) * sourceWidth + left;
+          for (int x = 0; x < width; x++, inputOffset += pixelStride) {
+            // Fully-transparent pixels are white, as in the general case
+            plane[outputOffset + x] = hasAlpha && data[inputOffset + alpha] == 0 ? (byte) 0xFF :
+                (byte) luminance(data[inputOffset + red] & 0xFF,
+                                 data[inputOffset + green] & 0xFF,
+                                 data[inputOffset + blue] & 0xFF);
+          }
+        }
+        return true;
+      }
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB: {
+        if (!(model instanceof SinglePixelPackedSampleModel) || !(buffer instanceof DataBufferInt)) {
+          return false;
+        }
+        int[] data = ((DataBufferInt) buffer).getData();
+        int scanlineStride = ((SinglePixelPackedSampleModel) model).getScanlineStride();
+        // The top byte of TYPE_INT_RGB pixels is unused, so they are all opaque
+        boolean hasAlpha = image.getType() == BufferedImage.TYPE_INT_ARGB;
+        for (int y = 0; y < height; y++) {
+          int inputOffset = buffer.getOffset() + (modelY + y) * scanlineStride + modelX;
+          int outputOffset = (top + y) * sourceWidth + left;
+          for (int x = 0; x < width; x++) {
+            int pixel = data[inputOffset + x];
+            plane[outputOffset + x] = hasAlpha && (pixel & 0xFF000000) == 0 ? (byte) 0xFF :
+                (byte) luminance((pixel >> 16) & 0xFF, (pixel >> 8) & 0xFF, pixel & 0xFF);
+          }
+        }
+        return true;
+      }
+      default:
+        return false;
+    }
   }
 
   @Override
@@ -94,6 +196,10 @@ public final class BufferedImageLuminanceSource extends LuminanceSource {
     if (row == null || row.length < width) {
       row = new byte[width];
     }
+    if (luminances != null) {
+      System.arraycopy(luminances, dataOffset + (top + y) * dataStride + left, row, 0, width);
+      return row;
+    }
     // The underlying raster of image consists of bytes with the luminance values
     image.getRaster().getDataElements(left, top + y, width, 1, row);
     return row;
@@ -101,10 +207,32 @@ public final class BufferedImageLuminanceSource extends LuminanceSource {
 
   @Override
   public byte[] getMatrix() {
+    return getMatrix(null);
+  }
+
+  @Override
+  public byte[] getMatrix(byte[] matrix) {
     int width = getWidth();
     int height = getHeight();
     int area = width * height;
-    byte[] matrix = new byte[area];
+    if (luminances != null) {
+      int inputOffset = dataOffset + top * dataStride + left;
+      // If the caller asks for the whole of a packed plane, give them the original data.
+      if (inputOffset == 0 && dataStride == width) {
+        return luminances;
+      }
+      if (matrix == null || matrix.length < area) {
+        matrix = new byte[area];
+      }
+      for (int y = 0; y < height; y++) {
+        System.arraycopy(luminances, inputOffset, matrix, y * width, width);
+        inputOffset += dataStride;
+      }
+      return matrix;
+    }
+    if (matrix == null || matrix.length < area) {
+      matrix = new byte[area];
+    }
     // The underlying raster of image consists of area bytes with the luminance values
     image.getRaster().getDataElements(left, top, width, height, matrix);
     return matrix;
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.main;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link com.google.zxing.common.ModuleSink} that writes an Encapsulated PostScript image, one
+ * rectfill per merged rectangle in module units under a single scale. PostScript has no
+ * transparency: the light color is painted as a background unless its alpha is 0, and alpha is
+ * otherwise ignored.
+ */
+public final class EPSModuleSink extends VectorModuleSink {
+
+  private final Writer writer;
+  private int height;
+
+  public EPSModuleSink(OutputStream stream, double moduleSize) {
+    this(stream, moduleSize, new MatrixToImageConfig());
+  }
+
+  /**
+   * @param stream stream to write the EPS to; it is flushed but not closed
+   * @param moduleSize width and height of a module, in points
+   * @param config colors to use
+   */
+  public EPSModuleSink(OutputStream stream, double moduleSize, MatrixToImageConfig config) {
+    super(moduleSize, config);
+    writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.US_ASCII));
+  }
+
+  @Override
+  void begin(int width, int height) throws IOException {
+    this.height = height;
+    double scaledWidth = width * getModuleSize();
+    double scaledHeight = height * getModuleSize();
+    writer.write("%!PS-Adobe-3.0 EPSF-3.0\n");
+    writer.write("%%BoundingBox: 0 0 " + (int) Math.ceil(scaledWidth) + ' ' + (int) Math.ceil(scaledHeight) + '\n');
+    writer.write("%%HiResBoundingBox: 0 0 " + format(scaledWidth, 4) + ' ' + format(scaledHeight, 4) + '\n');
+    writer.write("%%LanguageLevel: 2\n");
+    writer.write("%%EndComments\n");
+    writer.write("gsave\n");
+    String scale = format(getModuleSize(), 6);
+    writer.write(scale + ' ' + scale + " scale\n");
+    int offColor = getConfig().getPixelOffColor();
+    if (getAlpha(offColor) != 0) {
+      writer.write(formatRGB(offColor) + " setrgbcolor\n");
+      writer.write("0 0 " + width + ' ' + height + " rectfill\n");
+    }
+    writer.write(formatRGB(getConfig().getPixelOnColor()) + " setrgbcolor\n");
+  }
+
+  @Override
+  void rectangle(int x, int y, int width, int height) throws IOException {
+    // PostScript counts y upwards from the bottom
+    writer.write(x + " " + (this.height - y - height) + ' ' + width + ' ' + height + " rectfill\n");
+  }
+
+  @Override
+  void end() throws IOException {
+    writer.write("grestore\n");
+    writer.write("%%EOF\n");
+    writer.flush();
+  }
+
+}
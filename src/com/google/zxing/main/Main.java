@@ -20,6 +20,7 @@ public class Main {
         Hashtable<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
         hints.put(EncodeHintType.CHARACTER_SET, "GBK");
         hints.put(EncodeHintType.QR_VERSION, 5);
+        hints.put(EncodeHintType.BEAUTIFY_DEBUG_DIR, "result");
         BitMatrix matrix = null;
         try {
             matrix = new QRCodeWriter().encode("https://we.yiqixie.com/", BarcodeFormat.QR_CODE, 15, hints);
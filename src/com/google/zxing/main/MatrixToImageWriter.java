@@ -17,18 +17,23 @@
 package com.google.zxing.main;
 
 import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.ModuleRenderer;
 
 import javax.imageio.ImageIO;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.OutputStream;
 import java.io.IOException;
 import java.awt.image.BufferedImage;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 /**
  * Writes a {@link BitMatrix} to {@link BufferedImage},
  * file or stream. Provided here instead of core since it depends on
- * Java SE libraries.
+ * Java SE libraries. PNG and BMP are written row by row, without
+ * building a {@link BufferedImage} first, and the vector formats SVG,
+ * EPS and PDF are also supported.
  *
  * @author Sean Owen
  */
@@ -120,6 +125,12 @@ public final class MatrixToImageWriter {
    */
   public static void writeToPath(BitMatrix matrix, String format, Path file, MatrixToImageConfig config)
       throws IOException {
+    if (isStreamed(format, config)) {
+      try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(file))) {
+        writeStreamed(matrix, format, stream, config);
+      }
+      return;
+    }
     BufferedImage image = toBufferedImage(matrix, config);
     if (!ImageIO.write(image, format, file.toFile())) {
       throw new IOException("Could not write an image of format " + format + " to " + file);
@@ -150,10 +161,40 @@ public final class MatrixToImageWriter {
    */
   public static void writeToStream(BitMatrix matrix, String format, OutputStream stream, MatrixToImageConfig config) 
       throws IOException {  
+    if (isStreamed(format, config)) {
+      writeStreamed(matrix, format, stream, config);
+      return;
+    }
     BufferedImage image = toBufferedImage(matrix, config);
     if (!ImageIO.write(image, format, stream)) {
       throw new IOException("Could not write an image of format " + format);
     }
   }
 
+  private static boolean isStreamed(String format, MatrixToImageConfig config) {
+    if ("png".equalsIgnoreCase(format) || "svg".equalsIgnoreCase(format) ||
+        "eps".equalsIgnoreCase(format) || "pdf".equalsIgnoreCase(format)) {
+      return true;
+    }
+    // BMP can't hold the transparent colors, which the ImageIO writer reports as before
+    return "bmp".equalsIgnoreCase(format) &&
+        config.getBufferedImageColorModel() != BufferedImage.TYPE_INT_ARGB;
+  }
+
+  private static void writeStreamed(BitMatrix matrix, String format, OutputStream stream,
+                                    MatrixToImageConfig config) throws IOException {
+    // The vector formats draw one unit per pixel of the matrix
+    if ("png".equalsIgnoreCase(format)) {
+      MatrixToStreamWriter.writePNG(matrix, config, stream);
+    } else if ("svg".equalsIgnoreCase(format)) {
+      ModuleRenderer.render(matrix, 0, new SVGModuleSink(stream, 1.0, config));
+    } else if ("eps".equalsIgnoreCase(format)) {
+      ModuleRenderer.render(matrix, 0, new EPSModuleSink(stream, 1.0, config));
+    } else if ("pdf".equalsIgnoreCase(format)) {
+      ModuleRenderer.render(matrix, 0, new PDFModuleSink(stream, 1.0, config));
+    } else {
+      MatrixToStreamWriter.writeBMP(matrix, config, stream);
+    }
+  }
+
 }
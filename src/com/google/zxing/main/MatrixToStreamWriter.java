@@ -0,0 +1,274 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.main;
+
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a {@link BitMatrix} as a 1 bit per pixel, two color PNG or BMP, one row at a time,
+ * without building a {@link java.awt.image.BufferedImage}. Only one row of the image is held in
+ * memory, so the cost does not grow with the height of the image.
+ *
+ * Used by {@link MatrixToImageWriter} for those formats.
+ */
+final class MatrixToStreamWriter {
+
+  private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+  private static final int IDAT_SIZE = 1 << 15;
+
+  private MatrixToStreamWriter() {
+  }
+
+  /**
+   * Writes an indexed PNG whose palette entry 0 is the off color and 1 the on color. A tRNS chunk
+   * is added only if one of the colors is not opaque.
+   */
+  static void writePNG(BitMatrix matrix, MatrixToImageConfig config, OutputStream stream) throws IOException {
+    int width = matrix.getWidth();
+    int height = matrix.getHeight();
+    PNGStream png = new PNGStream(stream, width, height, config);
+    try {
+      byte[] scanline = png.newScanline();
+      BitArray row = new BitArray(width);
+      for (int y = 0; y < height; y++) {
+        packRow(matrix.getRow(y, row), scanline, PNGStream.SCANLINE_OFFSET, (width + 7) / 8);
+        png.writeScanline(scanline);
+      }
+      png.finish();
+    } finally {
+      png.release();
+    }
+  }
+
+  /**
+   * Writes a 1 bit per pixel BMP with a two color table. BMP has no transparency, so both colors
+   * must be opaque.
+   */
+  static void writeBMP(BitMatrix matrix, MatrixToImageConfig config, OutputStream stream) throws IOException {
+    int width = matrix.getWidth();
+    int height = matrix.getHeight();
+    int offColor = config.getPixelOffColor();
+    int onColor = config.getPixelOnColor();
+    if (!isOpaque(offColor) || !isOpaque(onColor)) {
+      throw new IllegalArgumentException("BMP can not hold transparent colors");
+    }
+
+    // Rows are padded to a multiple of 4 bytes
+    int rowBytes = (width + 7) / 8;
+    int stride = (rowBytes + 3) & ~3;
+    int pixelOffset = 14 + 40 + 2 * 4;
+
+    byte[] header = new byte[pixelOffset];
+    header[0] = 'B';
+    header[1] = 'M';
+    putIntLE(header, 2, pixelOffset + stride * height);
+    putIntLE(header, 10, pixelOffset);
+    // BITMAPINFOHEADER
+    putIntLE(header, 14, 40);
+    putIntLE(header, 18, width);
+    putIntLE(header, 22, height);
+    header[26] = 1; // planes
+    header[28] = 1; // bits per pixel
+    putIntLE(header, 34, stride * height);
+    putIntLE(header, 38, 2835); // 72 dpi
+    putIntLE(header, 42, 2835);
+    putIntLE(header, 46, 2);
+    // Color table, as BGR0
+    putIntLE(header, 54, offColor & 0xFFFFFF);
+    putIntLE(header, 58, onColor & 0xFFFFFF);
+    stream.write(header);
+
+    // Rows are stored bottom to top
+    byte[] line = new byte[stride];
+    BitArray row = new BitArray(width);
+    for (int y = height - 1; y >= 0; y--) {
+      packRow(matrix.getRow(y, row), line, 0, rowBytes);
+      stream.write(line);
+    }
+    stream.flush();
+  }
+
+  /**
+   * Packs the bits of "row" into "numBytes" bytes, most significant bit first, as both formats
+   * store 1 bit pixels.
+   */
+  private static void packRow(BitArray row, byte[] out, int offset, int numBytes) {
+    int[] bits = row.getBitArray();
+    for (int i = 0; i < numBytes; i++) {
+      int value = (bits[i >> 2] >>> ((i & 3) << 3)) & 0xFF;
+      out[offset + i] = (byte) (Integer.reverse(value) >>> 24);
+    }
+  }
+
+  private static boolean isOpaque(int argb) {
+    return (argb & 0xFF000000) == 0xFF000000;
+  }
+
+  private static void putInt(byte[] array, int offset, int value) {
+    array[offset] = (byte) (value >> 24);
+    array[offset + 1] = (byte) (value >> 16);
+    array[offset + 2] = (byte) (value >> 8);
+    array[offset + 3] = (byte) value;
+  }
+
+  private static void putIntLE(byte[] array, int offset, int value) {
+    array[offset] = (byte) value;
+    array[offset + 1] = (byte) (value >> 8);
+    array[offset + 2] = (byte) (value >> 16);
+    array[offset + 3] = (byte) (value >> 24);
+  }
+
+  private static void writeChunk(OutputStream stream, String type, byte[] data, int length) throws IOException {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    byte[] number = new byte[4];
+    putInt(number, 0, length);
+    stream.write(number);
+    stream.write(typeBytes);
+    stream.write(data, 0, length);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data, 0, length);
+    putInt(number, 0, (int) crc.getValue());
+    stream.write(number);
+  }
+
+  /**
+   * The parts of a 1 bit indexed PNG: the headers are written on construction, then every
+   * scanline in turn, then {@link #finish()} writes the end.
+   */
+  static final class PNGStream {
+
+    /**
+     * Where the pixels start in a scanline; the byte before is the filter type, always 0 (none).
+     */
+    static final int SCANLINE_OFFSET = 1;
+
+    private final OutputStream stream;
+    private final int rowBytes;
+    private final Deflater deflater;
+    private final IDATOutputStream idat;
+    private final DeflaterOutputStream compressed;
+
+    PNGStream(OutputStream stream, int width, int height, MatrixToImageConfig config) throws IOException {
+      this.stream = stream;
+      this.rowBytes = (width + 7) / 8;
+      int offColor = config.getPixelOffColor();
+      int onColor = config.getPixelOnColor();
+
+      stream.write(PNG_SIGNATURE);
+
+      byte[] header = new byte[13];
+      putInt(header, 0, width);
+      putInt(header, 4, height);
+      header[8] = 1; // bit depth
+      header[9] = 3; // indexed color
+      // compression, filter and interlace methods are all 0
+      writeChunk(stream, "IHDR", header, header.length);
+
+      byte[] palette = {
+          (byte) (offColor >> 16), (byte) (offColor >> 8), (byte) offColor,
+          (byte) (onColor >> 16), (byte) (onColor >> 8), (byte) onColor,
+      };
+      writeChunk(stream, "PLTE", palette, palette.length);
+      if (!isOpaque(offColor) || !isOpaque(onColor)) {
+        byte[] alpha = {(byte) (offColor >>> 24), (byte) (onColor >>> 24)};
+        writeChunk(stream, "tRNS", alpha, alpha.length);
+      }
+
+      deflater = new Deflater();
+      idat = new IDATOutputStream(stream);
+      compressed = new DeflaterOutputStream(idat, deflater, IDAT_SIZE);
+    }
+
+    /**
+     * @return a zeroed scanline, all off color, to fill from {@link #SCANLINE_OFFSET} on
+     */
+    byte[] newScanline() {
+      return new byte[SCANLINE_OFFSET + rowBytes];
+    }
+
+    void writeScanline(byte[] scanline) throws IOException {
+      compressed.write(scanline, 0, SCANLINE_OFFSET + rowBytes);
+    }
+
+    void finish() throws IOException {
+      compressed.finish();
+      idat.flushChunk();
+      writeChunk(stream, "IEND", new byte[0], 0);
+      stream.flush();
+    }
+
+    /**
+     * Frees the native memory of the compressor, whether or not the image was finished.
+     */
+    void release() {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Cuts the compressed image data into IDAT chunks of a fixed size.
+   */
+  private static final class IDATOutputStream extends OutputStream {
+
+    private final OutputStream stream;
+    private final byte[] buffer = new byte[IDAT_SIZE];
+    private int size;
+
+    IDATOutputStream(OutputStream stream) {
+      this.stream = stream;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (size == buffer.length) {
+        flushChunk();
+      }
+      buffer[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (size == buffer.length) {
+          flushChunk();
+        }
+        int n = Math.min(len, buffer.length - size);
+        System.arraycopy(b, off, buffer, size, n);
+        size += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    void flushChunk() throws IOException {
+      if (size > 0) {
+        writeChunk(stream, "IDAT", buffer, size);
+        size = 0;
+      }
+    }
+  }
+
+}
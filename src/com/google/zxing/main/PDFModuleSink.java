@@ -0,0 +1,131 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A {@link com.google.zxing.common.ModuleSink} that writes a one page PDF the size of the code.
+ * The page content is a single path of merged rectangles in module units under one transform,
+ * compressed. The light color is painted as a background unless its alpha is 0; alpha is
+ * otherwise ignored.
+ */
+public final class PDFModuleSink extends VectorModuleSink {
+
+  private final OutputStream stream;
+  private ByteArrayOutputStream content;
+  private Deflater deflater;
+  private Writer writer;
+  private int width;
+  private int height;
+  private boolean empty;
+
+  public PDFModuleSink(OutputStream stream, double moduleSize) {
+    this(stream, moduleSize, new MatrixToImageConfig());
+  }
+
+  /**
+   * @param stream stream to write the PDF to; it is flushed but not closed
+   * @param moduleSize width and height of a module, in points
+   * @param config colors to use
+   */
+  public PDFModuleSink(OutputStream stream, double moduleSize, MatrixToImageConfig config) {
+    super(moduleSize, config);
+    this.stream = stream;
+  }
+
+  @Override
+  void begin(int width, int height) throws IOException {
+    this.width = width;
+    this.height = height;
+    empty = true;
+    // The content goes first to memory, as its length is needed before it
+    content = new ByteArrayOutputStream();
+    deflater = new Deflater();
+    writer = new OutputStreamWriter(new DeflaterOutputStream(content, deflater), StandardCharsets.US_ASCII);
+    String scale = format(getModuleSize(), 6);
+    writer.write(scale + " 0 0 " + scale + " 0 0 cm\n");
+    int offColor = getConfig().getPixelOffColor();
+    if (getAlpha(offColor) != 0) {
+      writer.write(formatRGB(offColor) + " rg\n");
+      writer.write("0 0 " + width + ' ' + height + " re f\n");
+    }
+    writer.write(formatRGB(getConfig().getPixelOnColor()) + " rg\n");
+  }
+
+  @Override
+  void rectangle(int x, int y, int width, int height) throws IOException {
+    // PDF counts y upwards from the bottom
+    empty = false;
+    writer.write(x + " " + (this.height - y - height) + ' ' + width + ' ' + height + " re\n");
+  }
+
+  @Override
+  void end() throws IOException {
+    try {
+      if (!empty) {
+        writer.write("f\n");
+      }
+      writer.close();
+    } finally {
+      deflater.end();
+    }
+
+    String mediaBox = "0 0 " + format(width * getModuleSize(), 4) + ' ' + format(height * getModuleSize(), 4);
+    String[] objects = {
+        "<< /Type /Catalog /Pages 2 0 R >>",
+        "<< /Type /Pages /Kids [3 0 R] /Count 1 >>",
+        "<< /Type /Page /Parent 2 0 R /MediaBox [" + mediaBox + "] /Contents 4 0 R /Resources << >> >>",
+        "<< /Length " + content.size() + " /Filter /FlateDecode >>\nstream\n",
+    };
+    // All of the document but the content stream is ASCII, so characters count as bytes
+    int[] offsets = new int[objects.length];
+    StringBuilder document = new StringBuilder("%PDF-1.4\n");
+    for (int i = 0; i < objects.length - 1; i++) {
+      offsets[i] = document.length();
+      document.append(i + 1).append(" 0 obj\n").append(objects[i]).append("\nendobj\n");
+    }
+    int last = objects.length - 1;
+    offsets[last] = document.length();
+    document.append(last + 1).append(" 0 obj\n").append(objects[last]);
+    stream.write(document.toString().getBytes(StandardCharsets.US_ASCII));
+    content.writeTo(stream);
+
+    document.setLength(0);
+    document.append("\nendstream\nendobj\n");
+    int xref = offsets[last] + (last + 1 + " 0 obj\n" + objects[last]).length() + content.size() + document.length();
+    document.append("xref\n0 ").append(objects.length + 1).append('\n');
+    document.append("0000000000 65535 f \n");
+    for (int offset : offsets) {
+      document.append(String.format(Locale.ROOT, "%010d 00000 n \n", offset));
+    }
+    document.append("trailer\n<< /Size ").append(objects.length + 1).append(" /Root 1 0 R >>\n");
+    document.append("startxref\n").append(xref).append("\n%%EOF\n");
+    stream.write(document.toString().getBytes(StandardCharsets.US_ASCII));
+    stream.flush();
+    content = null;
+  }
+
+}
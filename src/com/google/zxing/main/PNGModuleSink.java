@@ -0,0 +1,111 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.main;
+
+import com.google.zxing.common.ModuleSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A {@link ModuleSink} that writes a 1 bit PNG with every module scaled to a square of pixels.
+ * Each module row is packed once into a scanline, which is then written as many times as a module
+ * is high, so only one scanline is held in memory.
+ */
+public final class PNGModuleSink implements ModuleSink {
+
+  private final OutputStream stream;
+  private final int moduleSize;
+  private final MatrixToImageConfig config;
+  private MatrixToStreamWriter.PNGStream png;
+  private byte[] scanline;
+
+  public PNGModuleSink(OutputStream stream, int moduleSize) {
+    this(stream, moduleSize, new MatrixToImageConfig());
+  }
+
+  /**
+   * @param stream stream to write the PNG to; it is flushed but not closed
+   * @param moduleSize width and height of a module, in pixels
+   * @param config colors to use
+   */
+  public PNGModuleSink(OutputStream stream, int moduleSize, MatrixToImageConfig config) {
+    if (moduleSize < 1) {
+      throw new IllegalArgumentException("Module size must be at least 1, but got " + moduleSize);
+    }
+    this.stream = stream;
+    this.moduleSize = moduleSize;
+    this.config = config;
+  }
+
+  @Override
+  public void start(int width, int height) throws IOException {
+    png = new MatrixToStreamWriter.PNGStream(stream, width * moduleSize, height * moduleSize, config);
+    scanline = png.newScanline();
+  }
+
+  @Override
+  public void run(int x, int y, int length) {
+    setBits(scanline, MatrixToStreamWriter.PNGStream.SCANLINE_OFFSET, x * moduleSize, (x + length) * moduleSize);
+  }
+
+  @Override
+  public void endRow(int y) throws IOException {
+    try {
+      for (int i = 0; i < moduleSize; i++) {
+        png.writeScanline(scanline);
+      }
+    } catch (IOException ioe) {
+      png.release();
+      throw ioe;
+    }
+    Arrays.fill(scanline, MatrixToStreamWriter.PNGStream.SCANLINE_OFFSET, scanline.length, (byte) 0);
+  }
+
+  @Override
+  public void finish() throws IOException {
+    try {
+      png.finish();
+    } finally {
+      png.release();
+    }
+  }
+
+  /**
+   * Sets pixels "from" to "to", exclusive, of a row packed most significant bit first.
+   */
+  static void setBits(byte[] row, int offset, int from, int to) {
+    if (from >= to) {
+      return;
+    }
+    int first = offset + (from >> 3);
+    int last = offset + ((to - 1) >> 3);
+    int firstMask = 0xFF >>> (from & 7);
+    int lastMask = 0xFF << (7 - ((to - 1) & 7));
+    if (first == last) {
+      row[first] |= (byte) (firstMask & lastMask);
+      return;
+    }
+    row[first] |= (byte) firstMask;
+    for (int i = first + 1; i < last; i++) {
+      row[i] = (byte) 0xFF;
+    }
+    row[last] |= (byte) lastMask;
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.main;
+
+import com.google.zxing.common.ModuleSink;
+
+import java.util.Arrays;
+
+/**
+ * A {@link ModuleSink} that draws into a caller's 1 bit raster, rows packed most significant bit
+ * first, 1 for dark, as printer and fax raster formats expect. Every module becomes a square of
+ * pixels. The sink clears the pixels it covers itself, up to the end of the last byte of each row.
+ */
+public final class RasterModuleSink implements ModuleSink {
+
+  private final byte[] raster;
+  private final int offset;
+  private final int stride;
+  private final int moduleSize;
+  private int rowBytes;
+  // module row whose top pixel row has been cleared for drawing
+  private int clearedRow;
+
+  /**
+   * @param raster the raster to draw in
+   * @param offset index of the first byte of the code's top row in "raster"
+   * @param stride bytes from one raster row to the next
+   * @param moduleSize width and height of a module, in pixels
+   */
+  public RasterModuleSink(byte[] raster, int offset, int stride, int moduleSize) {
+    if (moduleSize < 1) {
+      throw new IllegalArgumentException("Module size must be at least 1, but got " + moduleSize);
+    }
+    this.raster = raster;
+    this.offset = offset;
+    this.stride = stride;
+    this.moduleSize = moduleSize;
+  }
+
+  @Override
+  public void start(int width, int height) {
+    rowBytes = (width * moduleSize + 7) / 8;
+    if (rowBytes > stride || offset + (height * moduleSize - 1) * stride + rowBytes > raster.length) {
+      throw new IllegalArgumentException("Raster is too small for " + width + 'x' + height + " modules");
+    }
+    clearedRow = -1;
+  }
+
+  @Override
+  public void run(int x, int y, int length) {
+    int start = clearRow(y);
+    PNGModuleSink.setBits(raster, start, x * moduleSize, (x + length) * moduleSize);
+  }
+
+  @Override
+  public void endRow(int y) {
+    int start = clearRow(y);
+    // The other pixel rows of the module row are copies of the first
+    for (int i = 1; i < moduleSize; i++) {
+      System.arraycopy(raster, start, raster, start + i * stride, rowBytes);
+    }
+  }
+
+  /**
+   * @return index of the top pixel row of module row "y", cleared on first use
+   */
+  private int clearRow(int y) {
+    int start = offset + y * moduleSize * stride;
+    if (clearedRow != y) {
+      Arrays.fill(raster, start, start + rowBytes, (byte) 0);
+      clearedRow = y;
+    }
+    return start;
+  }
+
+  @Override
+  public void finish() {
+  }
+
+}
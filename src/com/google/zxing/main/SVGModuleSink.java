@@ -0,0 +1,90 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.main;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * A {@link com.google.zxing.common.ModuleSink} that writes an SVG image. All dark modules are one
+ * path of merged rectangles, drawn in module units and scaled by the view box. The light color is
+ * a background rectangle, left out when it is fully transparent.
+ */
+public final class SVGModuleSink extends VectorModuleSink {
+
+  private final Writer writer;
+
+  public SVGModuleSink(OutputStream stream, double moduleSize) {
+    this(stream, moduleSize, new MatrixToImageConfig());
+  }
+
+  /**
+   * @param stream stream to write the SVG to; it is flushed but not closed
+   * @param moduleSize width and height of a module, in SVG user units (CSS pixels)
+   * @param config colors to use
+   */
+  public SVGModuleSink(OutputStream stream, double moduleSize, MatrixToImageConfig config) {
+    super(moduleSize, config);
+    writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+  }
+
+  @Override
+  void begin(int width, int height) throws IOException {
+    writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\"" +
+        format(width * getModuleSize(), 4) + "\" height=\"" + format(height * getModuleSize(), 4) +
+        "\" viewBox=\"0 0 " + width + ' ' + height + "\" shape-rendering=\"crispEdges\">\n");
+    int offColor = getConfig().getPixelOffColor();
+    if (getAlpha(offColor) != 0) {
+      writer.write("<rect width=\"" + width + "\" height=\"" + height + '"' + fill(offColor) + "/>\n");
+    }
+    writer.write("<path" + fill(getConfig().getPixelOnColor()) + " d=\"");
+  }
+
+  @Override
+  void rectangle(int x, int y, int width, int height) throws IOException {
+    writer.write('M');
+    writer.write(Integer.toString(x));
+    writer.write(' ');
+    writer.write(Integer.toString(y));
+    writer.write('h');
+    writer.write(Integer.toString(width));
+    writer.write('v');
+    writer.write(Integer.toString(height));
+    writer.write("h-");
+    writer.write(Integer.toString(width));
+    writer.write('z');
+  }
+
+  @Override
+  void end() throws IOException {
+    writer.write("\"/>\n</svg>\n");
+    writer.flush();
+  }
+
+  private static String fill(int argb) {
+    String fill = String.format(Locale.ROOT, " fill=\"#%06x\"", argb & 0xFFFFFF);
+    int alpha = getAlpha(argb);
+    return alpha == 0xFF ? fill : fill + " fill-opacity=\"" + format(alpha / 255.0, 3) + '"';
+  }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2009 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.main;
+
+import com.google.zxing.common.ModuleSink;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Base of the vector output sinks. Runs of dark modules are already one rectangle wide; a run
+ * that repeats with the same start and length in the next row extends its rectangle downwards
+ * instead of starting a new one, so a code becomes as few rectangles as its shape allows and
+ * the output grows with the number of runs, not of modules. Coordinates passed on are in
+ * modules, top-left origin; subclasses scale them once for the whole drawing.
+ */
+abstract class VectorModuleSink implements ModuleSink {
+
+  private final double moduleSize;
+  private final MatrixToImageConfig config;
+
+  // Rectangles still open at the previous row, by increasing x
+  private int[] openX;
+  private int[] openLength;
+  private int[] openTop;
+  private int numOpen;
+  // Where the next row's open rectangles are built, swapped with the above after every row
+  private int[] nextX;
+  private int[] nextLength;
+  private int[] nextTop;
+  // Runs of the current row, by increasing x
+  private int[] runX;
+  private int[] runLength;
+  private int numRuns;
+  private int height;
+
+  VectorModuleSink(double moduleSize, MatrixToImageConfig config) {
+    if (!(moduleSize > 0.0)) {
+      throw new IllegalArgumentException("Module size must be positive, but got " + moduleSize);
+    }
+    this.moduleSize = moduleSize;
+    this.config = config;
+  }
+
+  final double getModuleSize() {
+    return moduleSize;
+  }
+
+  final MatrixToImageConfig getConfig() {
+    return config;
+  }
+
+  @Override
+  public final void start(int width, int height) throws IOException {
+    this.height = height;
+    // A row has at most one run per two modules, rounded up
+    int maxRuns = (width + 1) / 2;
+    openX = new int[maxRuns];
+    openLength = new int[maxRuns];
+    openTop = new int[maxRuns];
+    nextX = new int[maxRuns];
+    nextLength = new int[maxRuns];
+    nextTop = new int[maxRuns];
+    runX = new int[maxRuns];
+    runLength = new int[maxRuns];
+    numOpen = 0;
+    numRuns = 0;
+    begin(width, height);
+  }
+
+  @Override
+  public final void run(int x, int y, int length) {
+    runX[numRuns] = x;
+    runLength[numRuns] = length;
+    numRuns++;
+  }
+
+  @Override
+  public final void endRow(int y) throws IOException {
+    // Merge the open rectangles with this row's runs. Both are sorted by x, and neither overlaps
+    // within itself, so matching runs are found in one pass.
+    int o = 0;
+    int r = 0;
+    int numNext = 0;
+    while (o < numOpen || r < numRuns) {
+      if (r == numRuns || (o < numOpen && openX[o] < runX[r])) {
+        rectangle(openX[o], openTop[o], openLength[o], y - openTop[o]);
+        o++;
+        continue;
+      }
+      int top = y;
+      if (o < numOpen && openX[o] == runX[r]) {
+        if (openLength[o] == runLength[r]) {
+          top = openTop[o];
+        } else {
+          // Same start, different length: the open rectangle ends and the run starts a new one
+          rectangle(openX[o], openTop[o], openLength[o], y - openTop[o]);
+        }
+        o++;
+      }
+      nextX[numNext] = runX[r];
+      nextLength[numNext] = runLength[r];
+      nextTop[numNext] = top;
+      numNext++;
+      r++;
+    }
+
+    int[] swap = openX;
+    openX = nextX;
+    nextX = swap;
+    swap = openLength;
+    openLength = nextLength;
+    nextLength = swap;
+    swap = openTop;
+    openTop = nextTop;
+    nextTop = swap;
+    numOpen = numNext;
+    numRuns = 0;
+  }
+
+  @Override
+  public final void finish() throws IOException {
+    for (int o = 0; o < numOpen; o++) {
+      rectangle(openX[o], openTop[o], openLength[o], height - openTop[o]);
+    }
+    numOpen = 0;
+    end();
+  }
+
+  /**
+   * Called before any rectangle, with the size of the drawing in modules.
+   */
+  abstract void begin(int width, int height) throws IOException;
+
+  /**
+   * A dark rectangle, in modules from the top left corner.
+   */
+  abstract void rectangle(int x, int y, int width, int height) throws IOException;
+
+  abstract void end() throws IOException;
+
+  /**
+   * @return "value" with at most "decimals" decimals and no trailing zeros, whatever the locale
+   */
+  static String format(double value, int decimals) {
+    BigDecimal decimal = BigDecimal.valueOf(value).setScale(decimals, RoundingMode.HALF_UP).stripTrailingZeros();
+    return decimal.signum() == 0 ? "0" : decimal.toPlainString();
+  }
+
+  /**
+   * @return the red, green and blue of "argb" as fractions of 1, separated by spaces
+   */
+  static String formatRGB(int argb) {
+    return format(((argb >> 16) & 0xFF) / 255.0, 3) + ' ' +
+        format(((argb >> 8) & 0xFF) / 255.0, 3) + ' ' +
+        format((argb & 0xFF) / 255.0, 3);
+  }
+
+  static int getAlpha(int argb) {
+    return argb >>> 24;
+  }
+
+}
@@ -21,18 +21,27 @@ import com.google.zxing.EncodeHintType;
 import com.google.zxing.Writer;
 import com.google.zxing.WriterException;
 import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.ModuleSink;
 import com.google.zxing.common.reedsolomon.GenericGF;
+import com.google.zxing.qrcode.encoder.BatchEncoder;
+import com.google.zxing.qrcode.encoder.BeautifyResult;
 import com.google.zxing.qrcode.encoder.ByteMatrix;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Version;
 import com.google.zxing.qrcode.encoder.Encoder;
+import com.google.zxing.qrcode.encoder.LogoCache;
 import com.google.zxing.qrcode.encoder.QRCode;
 import com.google.zxing.qrcode.encoder.QRCodeBeautify;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.highgui.Highgui;
 import org.opencv.imgproc.Imgproc;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -44,6 +53,31 @@ public final class QRCodeWriter implements Writer {
 
     private static final int QUIET_ZONE_SIZE = 4;
 
+    private final QRCodeBeautify beautify;
+    private final LogoCache logoCache;
+
+    public QRCodeWriter() {
+        this(new QRCodeBeautify(), null);
+    }
+
+    /**
+     * @param beautify engine used for codes with an embedded image. It is stateless, so one
+     *                 instance may be shared by any number of writers and threads.
+     */
+    public QRCodeWriter(QRCodeBeautify beautify) {
+        this(beautify, null);
+    }
+
+    /**
+     * @param beautify engine used for codes with an embedded image
+     * @param logoCache keeps the processed embedded images between calls, or null. It may be shared
+     *                  by writers with different engines; entries are kept apart per importance map.
+     */
+    public QRCodeWriter(QRCodeBeautify beautify, LogoCache logoCache) {
+        this.beautify = beautify;
+        this.logoCache = logoCache;
+    }
+
     @Override
     public BitMatrix encode(String contents, BarcodeFormat format, int width, int height)
             throws WriterException {
@@ -88,6 +122,107 @@ public final class QRCodeWriter implements Writer {
         return renderResult(code, width, height, quietZone);
     }
 
+    /**
+     * Encodes every content like {@link #encode(String, BarcodeFormat, int, int, Map)}, spreading
+     * the work over a pool of threads. See {@link BatchEncoder}.
+     *
+     * @return one matrix per content, in the same order
+     */
+    public List<BitMatrix> encode(List<String> contents,
+                                  BarcodeFormat format,
+                                  int width,
+                                  int height,
+                                  Map<EncodeHintType, ?> hints) throws WriterException {
+
+        for (String content : contents) {
+            if (content.isEmpty()) {
+                throw new IllegalArgumentException("Found empty contents");
+            }
+        }
+        return newBatchEncoder(format, width, height, hints).encode(contents,
+                newBatchRenderer(width, height, hints));
+    }
+
+    /**
+     * As {@link #encode(List, BarcodeFormat, int, int, Map)}, for more contents than should be held
+     * in memory at once: they are read as needed and each matrix is written to "output" in order.
+     * See {@link BatchEncoder#encode(Iterator, BatchEncoder.Renderer, BatchEncoder.Output)}.
+     */
+    public void encode(final Iterator<String> contents,
+                       BarcodeFormat format,
+                       int width,
+                       int height,
+                       Map<EncodeHintType, ?> hints,
+                       BatchEncoder.Output<? super BitMatrix> output) throws WriterException, IOException {
+
+        Iterator<String> checked = new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return contents.hasNext();
+            }
+
+            @Override
+            public String next() {
+                String content = contents.next();
+                if (content.isEmpty()) {
+                    throw new IllegalArgumentException("Found empty contents");
+                }
+                return content;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        newBatchEncoder(format, width, height, hints).encode(checked,
+                newBatchRenderer(width, height, hints), output);
+    }
+
+    private static BatchEncoder newBatchEncoder(BarcodeFormat format,
+                                                int width,
+                                                int height,
+                                                Map<EncodeHintType, ?> hints) {
+
+        if (format != BarcodeFormat.QR_CODE) {
+            throw new IllegalArgumentException("Can only encode QR_CODE, but got " + format);
+        }
+
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Requested dimensions are too small: " + width + 'x' +
+                    height);
+        }
+
+        ErrorCorrectionLevel errorCorrectionLevel = ErrorCorrectionLevel.L;
+        if (hints != null) {
+            ErrorCorrectionLevel requestedECLevel = (ErrorCorrectionLevel) hints.get(EncodeHintType.ERROR_CORRECTION);
+            if (requestedECLevel != null) {
+                errorCorrectionLevel = requestedECLevel;
+            }
+        }
+        return new BatchEncoder(errorCorrectionLevel, hints);
+    }
+
+    private static BatchEncoder.Renderer<BitMatrix> newBatchRenderer(final int width,
+                                                                     final int height,
+                                                                     Map<EncodeHintType, ?> hints) {
+        int quietZone = QUIET_ZONE_SIZE;
+        if (hints != null) {
+            Integer quietZoneInt = (Integer) hints.get(EncodeHintType.MARGIN);
+            if (quietZoneInt != null) {
+                quietZone = quietZoneInt;
+            }
+        }
+
+        final int finalQuietZone = quietZone;
+        return new BatchEncoder.Renderer<BitMatrix>() {
+            @Override
+            public BitMatrix render(QRCode code) {
+                return renderResult(code, width, height, finalQuietZone);
+            }
+        };
+    }
+
     // Note that the input matrix uses 0 == white, 1 == black, while the output matrix uses
     // 0 == black, 255 == white (i.e. an 8 bit greyscale bitmap).
     private static BitMatrix renderResult(QRCode code, int width, int height, int quietZone) {
@@ -186,11 +321,64 @@ public final class QRCodeWriter implements Writer {
         return output;
     }
 
+    /**
+     * Feeds the dark runs of the code's modules, surrounded by "quietZone" light modules, to
+     * "sink", which does any scaling. Unlike {@link #renderResult(QRCode, int, int)} this never
+     * builds a matrix of the output size.
+     */
+    public static void renderResult(QRCode code, int quietZone, ModuleSink sink) throws IOException {
+        ByteMatrix input = code.getMatrix();
+        if (input == null) {
+            throw new IllegalStateException();
+        }
+        int inputWidth = input.getWidth();
+        int inputHeight = input.getHeight();
+        byte[][] array = input.getArray();
+        sink.start(inputWidth + quietZone * 2, inputHeight + quietZone * 2);
+        for (int y = 0; y < quietZone; y++) {
+            sink.endRow(y);
+        }
+        for (int inputY = 0; inputY < inputHeight; inputY++) {
+            byte[] row = array[inputY];
+            int outputY = quietZone + inputY;
+            int inputX = 0;
+            while (inputX < inputWidth) {
+                if (row[inputX] != 1) {
+                    inputX++;
+                    continue;
+                }
+                int start = inputX;
+                while (inputX < inputWidth && row[inputX] == 1) {
+                    inputX++;
+                }
+                sink.run(quietZone + start, outputY, inputX - start);
+            }
+            sink.endRow(outputY);
+        }
+        for (int y = quietZone + inputHeight; y < inputHeight + quietZone * 2; y++) {
+            sink.endRow(y);
+        }
+        sink.finish();
+    }
+
     public Mat encode(String embedImg,
                             String contents,
                             BarcodeFormat format,
                             int moduleSize,
                             Map<EncodeHintType, ?> hints) throws Exception {
+        return encode(Highgui.imread(embedImg), contents, format, moduleSize, hints);
+    }
+
+    /**
+     * Encodes the contents on top of an image that is already in memory. The resized logo and the
+     * ideal rendering are passed between the stages directly; they are only written to disk when
+     * {@link EncodeHintType#BEAUTIFY_DEBUG_DIR} is given.
+     */
+    public Mat encode(Mat embed,
+                            String contents,
+                            BarcodeFormat format,
+                            int moduleSize,
+                            Map<EncodeHintType, ?> hints) throws Exception {
 
         if (contents.isEmpty()) {
             throw new IllegalArgumentException("Found empty contents");
@@ -205,8 +393,13 @@ public final class QRCodeWriter implements Writer {
                     moduleSize);
         }
 
+        if (embed == null || embed.empty()) {
+            throw new IllegalArgumentException("Found empty embed image");
+        }
+
         ErrorCorrectionLevel errorCorrectionLevel = ErrorCorrectionLevel.L;
         int quietZone = QUIET_ZONE_SIZE;
+        String debugDir = null;
         if (hints != null) {
             ErrorCorrectionLevel requestedECLevel = (ErrorCorrectionLevel) hints.get(EncodeHintType.ERROR_CORRECTION);
             if (requestedECLevel != null) {
@@ -216,116 +409,156 @@ public final class QRCodeWriter implements Writer {
             if (quietZoneInt != null) {
                 quietZone = quietZoneInt;
             }
+            debugDir = (String) hints.get(EncodeHintType.BEAUTIFY_DEBUG_DIR);
+        }
+
+        BeautifyResult ideal = beautify.idealCode(contents, errorCorrectionLevel, hints);
+        Version version = ideal.getCode().getVersion();
+        int dimension = ideal.getCode().getMatrix().getWidth();
+
+        // Resizing, binarizing and scoring the logo only depend on the logo and the code's geometry,
+        // so repeated logos can skip all of it.
+        byte[] logoHash = logoCache == null ? null : LogoCache.hash(embed);
+        LogoCache.Entry prepared = logoCache == null ? null :
+                logoCache.get(logoHash, beautify.getImportanceMap(), version, errorCorrectionLevel, moduleSize);
+        if (prepared == null) {
+            Mat out = new Mat();
+            Imgproc.resize(embed, out, new Size(dimension * moduleSize, dimension * moduleSize));
+            dump(debugDir, "logo_change_size.bmp", out);
+            Mat idealImage = renderResult(out, ideal.getCode(), moduleSize, quietZone, ideal.getBasicNotChange());
+            dump(debugDir, "logo_ideal.bmp", idealImage);
+            prepared = new LogoCache.Entry(out,
+                    beautify.getIdealResult(idealImage),
+                    beautify.getImportance(out, dimension, moduleSize));
+            if (logoCache != null) {
+                logoCache.put(logoHash, beautify.getImportanceMap(), version, errorCorrectionLevel, moduleSize,
+                        prepared);
+            }
         }
 
-        QRCode basicCode = Encoder.encode(contents, errorCorrectionLevel, hints);
-        //Load the embedImg
-        Mat src = Highgui.imread(embedImg);
-        Mat out = new Mat();
-        Size size = new Size(basicCode.getMatrix().getWidth() * moduleSize,
-                             basicCode.getMatrix().getHeight() * moduleSize);
-        Imgproc.resize(src, out, size);
-        Highgui.imwrite("result/logo_change_size.bmp", out);
-        QRCodeBeautify beautify = new QRCodeBeautify();
-        QRCode ideal = beautify.idealCode(embedImg, contents, errorCorrectionLevel, moduleSize, hints);
-        Mat idealImage = renderResult(out, ideal, moduleSize, quietZone, beautify.basicNotChange);
-        Highgui.imwrite("result/logo_ideal.bmp", idealImage);
-        QRCode code = beautify.encode(embedImg, contents, errorCorrectionLevel, moduleSize, hints);
-        Mat real = renderResult(out, code, moduleSize, quietZone, beautify.basicNotChange, beautify.basicChange, beautify.mIdeal);
+        BeautifyResult code = beautify.encode(prepared.getIdeal(), prepared.getImportance(),
+                contents, errorCorrectionLevel, hints);
+        Mat real = renderResult(prepared.getLogo(), code.getCode(), moduleSize, quietZone,
+                code.getBasicNotChange(), code.getBasicChange(), code.getIdeal());
         return real;
     }
 
-    public static Mat renderResult(Mat embed, QRCode code, int moduleSize, int quietZone, ByteMatrix flag){
-        ByteMatrix input = code.getMatrix();
-        if (input == null) {
-            throw new IllegalStateException();
+    private static void dump(String debugDir, String name, Mat image) {
+        if (debugDir != null) {
+            Highgui.imwrite(new File(debugDir, name).getPath(), image);
         }
-        int inputWidth = input.getWidth();
-        int inputHeight = input.getHeight();
-        int qrWidth = (inputWidth + quietZone * 2) * moduleSize;
-        int qrHeight = (inputHeight + quietZone * 2) * moduleSize;
-
-        assert embed.width() == inputWidth * moduleSize;
-        Mat output = new Mat(qrWidth, qrHeight, embed.type(), new Scalar(255, 255, 255));
+    }
 
-        //For each module
-        for(int i = 0; i < inputHeight; i++) {
-            for (int j = 0; j < inputWidth; j++) {
-                int moduleX = (j + quietZone) * moduleSize;
-                int moduleY = (i + quietZone) * moduleSize;
-                if (flag.get(j, i) != -1) {
-                    if (input.get(j, i) == 0) {
-                        // white
-
-                    } else {
-                        // black
-                        for (int m = 0; m < moduleSize; m++) {
-                            for (int n = 0; n < moduleSize; n++) {
-                                output.col(moduleX + m).row(moduleY + n).setTo(new Scalar(0, 0, 0));
-                            }
-                        }
-                    }
-                } else {
-                    for (int m = 0; m < moduleSize; m++) {
-                        for (int n = 0; n < moduleSize; n++) {
-                            embed.col(moduleX + m - quietZone * moduleSize).row(moduleY + n - quietZone * moduleSize).copyTo(output.col(moduleX + m).row(moduleY + n));
-                        }
-                    }
-                }
-            }
-        }
-        return output;
+    public static Mat renderResult(Mat embed, QRCode code, int moduleSize, int quietZone, ByteMatrix flag){
+        return renderEmbedded(embed, code, moduleSize, quietZone, flag, null, null);
     }
 
     public static Mat renderResult(Mat embed, QRCode code, int moduleSize, int quietZone, ByteMatrix flag1, ByteMatrix flag2, BitMatrix ideal){
+        return renderEmbedded(embed, code, moduleSize, quietZone, flag1, flag2, ideal);
+    }
+
+    // Module kinds used by renderEmbedded.
+    private static final int MODULE_WHITE = 0;
+    private static final int MODULE_BLACK = 1;
+    private static final int MODULE_EMBED = 2;
+    private static final int MODULE_EMBED_WITH_DOT = 3;
+
+    // Renders into a byte[] frame buffer which is handed to OpenCV in a single put(), rather than
+    // creating a Mat header and a Scalar for every pixel. Each row of the embedded image is copied
+    // in one go and the modules that show the code are painted over it. Modules flagged in "flag1"
+    // show the code. The others show the embedded image, with a dot of the module's color in the
+    // center if they are flagged in "flag2" or if the code differs from "ideal" there. "flag2" and
+    // "ideal" may be null.
+    private static Mat renderEmbedded(Mat embed,
+                                      QRCode code,
+                                      int moduleSize,
+                                      int quietZone,
+                                      ByteMatrix flag1,
+                                      ByteMatrix flag2,
+                                      BitMatrix ideal) {
         ByteMatrix input = code.getMatrix();
         if (input == null) {
             throw new IllegalStateException();
         }
+        if (embed.depth() != CvType.CV_8U) {
+            throw new IllegalArgumentException("Can only embed 8 bit images");
+        }
         int inputWidth = input.getWidth();
         int inputHeight = input.getHeight();
         int qrWidth = (inputWidth + quietZone * 2) * moduleSize;
         int qrHeight = (inputHeight + quietZone * 2) * moduleSize;
 
         assert embed.width() == inputWidth * moduleSize;
-        Mat output = new Mat(qrWidth, qrHeight, embed.type(), new Scalar(255, 255, 255));
+        int channels = embed.channels();
+        int embedStride = embed.cols() * channels;
+        byte[] embedPixels = new byte[embed.rows() * embedStride];
+        embed.get(0, 0, embedPixels);
+
+        // The colors Scalar(255, 255, 255) and Scalar(0, 0, 0) stand for with this many channels.
+        int moduleBytes = moduleSize * channels;
+        byte[] whiteModule = new byte[moduleBytes];
+        for (int i = 0; i < moduleBytes; i++) {
+            if (i % channels < 3) {
+                whiteModule[i] = (byte) 0xFF;
+            }
+        }
+        byte[] blackModule = new byte[moduleBytes];
 
-        //For each module
-        for(int i = 0; i < inputHeight; i++) {
+        int outputStride = qrWidth * channels;
+        byte[] frame = new byte[qrHeight * outputStride];
+        for (int offset = 0; offset < outputStride; offset += channels) {
+            System.arraycopy(whiteModule, 0, frame, offset, channels);
+        }
+        for (int y = 1; y < qrHeight; y++) {
+            System.arraycopy(frame, 0, frame, y * outputStride, outputStride);
+        }
+
+        int dotStart = moduleSize / 3;
+        int dotEnd = moduleSize * 2 / 3;
+        int[] kinds = new int[inputWidth];
+        int codeLeft = quietZone * moduleBytes;
+        int codeBytes = inputWidth * moduleBytes;
+        for (int i = 0; i < inputHeight; i++) {
             for (int j = 0; j < inputWidth; j++) {
-                int moduleX = (j + quietZone) * moduleSize;
-                int moduleY = (i + quietZone) * moduleSize;
+                boolean black = input.get(j, i) == 1;
                 if (flag1.get(j, i) != -1) {
-                    if (input.get(j, i) == 0) {
-                        // white
-
-                    } else {
-                        // black
-                        for (int m = 0; m < moduleSize; m++) {
-                            for (int n = 0; n < moduleSize; n++) {
-                                output.col(moduleX + m).row(moduleY + n).setTo(new Scalar(0, 0, 0));
-                            }
-                        }
-                    }
-                } else if (flag2.get(j, i) != -1 || (input.get(j, i) == 1) != ideal.get(j, i)) {
-                    for (int m = 0; m < moduleSize; m++) {
-                        for (int n = 0; n < moduleSize; n++) {
-                            if(m >= moduleSize / 3 && m <= moduleSize * 2 / 3 && n >= moduleSize / 3 && n <= moduleSize * 2 / 3){
-                                output.col(moduleX + m).row(moduleY + n).setTo(input.get(j, i) == 0 ? new Scalar(255, 255, 255) : new Scalar(0, 0, 0));
-                            }
-                            else
-                                embed.col(moduleX + m - quietZone * moduleSize).row(moduleY + n - quietZone * moduleSize).copyTo(output.col(moduleX + m).row(moduleY + n));
-                        }
-                    }
+                    kinds[j] = black ? MODULE_BLACK : MODULE_WHITE;
+                } else if ((flag2 != null && flag2.get(j, i) != -1) || (ideal != null && black != ideal.get(j, i))) {
+                    kinds[j] = MODULE_EMBED_WITH_DOT;
                 } else {
-                    for (int m = 0; m < moduleSize; m++) {
-                        for (int n = 0; n < moduleSize; n++) {
-                            embed.col(moduleX + m - quietZone * moduleSize).row(moduleY + n - quietZone * moduleSize).copyTo(output.col(moduleX + m).row(moduleY + n));
-                        }
+                    kinds[j] = MODULE_EMBED;
+                }
+            }
+            for (int n = 0; n < moduleSize; n++) {
+                int embedOffset = (i * moduleSize + n) * embedStride;
+                int rowOffset = ((i + quietZone) * moduleSize + n) * outputStride + codeLeft;
+                System.arraycopy(embedPixels, embedOffset, frame, rowOffset, codeBytes);
+                boolean dotRow = n >= dotStart && n <= dotEnd;
+                for (int j = 0; j < inputWidth; j++) {
+                    int moduleOffset = rowOffset + j * moduleBytes;
+                    switch (kinds[j]) {
+                        case MODULE_WHITE:
+                            System.arraycopy(whiteModule, 0, frame, moduleOffset, moduleBytes);
+                            break;
+                        case MODULE_BLACK:
+                            System.arraycopy(blackModule, 0, frame, moduleOffset, moduleBytes);
+                            break;
+                        case MODULE_EMBED_WITH_DOT:
+                            if (dotRow) {
+                                byte[] color = input.get(j, i) == 0 ? whiteModule : blackModule;
+                                System.arraycopy(color, 0, frame, moduleOffset + dotStart * channels,
+                                        (dotEnd - dotStart + 1) * channels);
+                            }
+                            break;
+                        default:
+                            break;
                     }
                 }
             }
         }
+
+        Mat output = new Mat(qrHeight, qrWidth, embed.type());
+        output.put(0, 0, frame);
         return output;
     }
 }
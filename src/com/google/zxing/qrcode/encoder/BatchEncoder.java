@@ -0,0 +1,251 @@
+package com.google.zxing.qrcode.encoder;
+
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Encodes many contents with the same error correction level and hints, as {@link Encoder} would
+ * one by one. The contents are cut into contiguous chunks which are encoded in parallel. A running
+ * chunk holds one {@link EncoderScratch}, so the bits, codewords and matrices of its codes reuse
+ * the same buffers instead of being allocated for every code. Results come back in the order of
+ * the contents.
+ *
+ * For more contents than should be held in memory at once, {@link #encode(Iterator, Renderer, Output)}
+ * reads and writes them in windows of a bounded size.
+ *
+ * A batch encoder may be shared between threads.
+ */
+public final class BatchEncoder {
+
+    /**
+     * Turns each finished code into the value returned for it, on the thread that encoded it. The
+     * code and its matrix are only valid during the call: they are reused for the next code.
+     */
+    public interface Renderer<T> {
+        T render(QRCode code) throws WriterException;
+    }
+
+    /**
+     * Receives the rendered codes of {@link #encode(Iterator, Renderer, Output)}, one at a time and
+     * in the order of the contents, on the calling thread.
+     */
+    public interface Output<T> {
+        void write(T value) throws IOException;
+    }
+
+    // Enough chunks per thread to even out codes of different sizes
+    private static final int CHUNKS_PER_THREAD = 4;
+    // Contents per chunk when streaming
+    private static final int STREAM_CHUNK_SIZE = 64;
+
+    private final ErrorCorrectionLevel ecLevel;
+    private final Map<EncodeHintType, ?> hints;
+    private final ForkJoinPool pool;
+    // Scratches of the chunks that ran; at most one per chunk running at the same time
+    private final Queue<EncoderScratch> scratches;
+
+    public BatchEncoder(ErrorCorrectionLevel ecLevel, Map<EncodeHintType, ?> hints) {
+        this(ecLevel, hints, null);
+    }
+
+    /**
+     * @param pool pool to run the chunks on, or null for a pool shared by all batch encoders
+     */
+    public BatchEncoder(ErrorCorrectionLevel ecLevel, Map<EncodeHintType, ?> hints, ForkJoinPool pool) {
+        this.ecLevel = ecLevel;
+        this.hints = hints;
+        this.pool = pool;
+        this.scratches = new ConcurrentLinkedQueue<>();
+    }
+
+    public List<QRCode> encode(List<String> contents) throws WriterException {
+        return encode(contents, new Renderer<QRCode>() {
+            @Override
+            public QRCode render(QRCode code) {
+                // The matrix belongs to the chunk's scratch, so keep a copy
+                ByteMatrix matrix = code.getMatrix();
+                ByteMatrix copy = new ByteMatrix(matrix.getWidth(), matrix.getHeight());
+                for (int y = 0; y < matrix.getHeight(); y++) {
+                    System.arraycopy(matrix.getArray()[y], 0, copy.getArray()[y], 0, matrix.getWidth());
+                }
+                code.setMatrix(copy);
+                return code;
+            }
+        });
+    }
+
+    /**
+     * @return one rendered code per content, in the same order
+     * @throws WriterException if any of the contents can't be encoded
+     */
+    public <T> List<T> encode(List<String> contents, Renderer<T> renderer) throws WriterException {
+        String[] input = contents.toArray(new String[contents.size()]);
+        ForkJoinPool executor = getExecutor();
+        Batch batch = submit(executor, input, input.length,
+                Math.min(input.length, executor.getParallelism() * CHUNKS_PER_THREAD), renderer);
+        batch.await();
+
+        @SuppressWarnings("unchecked")
+        List<T> results = (List<T>) Arrays.asList(batch.output);
+        return results;
+    }
+
+    /**
+     * Encodes the contents as they are read and writes each rendered code to "output" in order.
+     * Contents are read a window at a time; the next window is encoded while the previous one is
+     * written, so at most two windows of contents and results are held at once.
+     *
+     * @throws WriterException if any of the contents can't be encoded. The codes of the contents
+     *                         before it may or may not have been written.
+     * @throws IOException if "output" fails
+     */
+    public <T> void encode(Iterator<String> contents, Renderer<T> renderer, Output<? super T> output)
+            throws WriterException, IOException {
+        ForkJoinPool executor = getExecutor();
+        int numChunks = executor.getParallelism() * CHUNKS_PER_THREAD;
+        int windowSize = numChunks * STREAM_CHUNK_SIZE;
+        Batch current = read(executor, contents, windowSize, numChunks, renderer);
+        Batch next = null;
+        try {
+            while (current != null) {
+                next = read(executor, contents, windowSize, numChunks, renderer);
+                current.await();
+                current.write(output);
+                current = next;
+                next = null;
+            }
+        } finally {
+            // Windows are only left over after a failure; don't keep the pool busy with them
+            if (current != null) {
+                current.cancel();
+            }
+            if (next != null) {
+                next.cancel();
+            }
+        }
+    }
+
+    private ForkJoinPool getExecutor() {
+        return pool == null ? BatchPool.POOL : pool;
+    }
+
+    /**
+     * @return the next window of at most "windowSize" contents, already submitted, or null if there
+     * are none left
+     */
+    private Batch read(ForkJoinPool executor, Iterator<String> contents, int windowSize, int numChunks,
+                       Renderer<?> renderer) {
+        String[] input = new String[windowSize];
+        int count = 0;
+        while (count < windowSize && contents.hasNext()) {
+            input[count++] = contents.next();
+        }
+        if (count == 0) {
+            return null;
+        }
+        return submit(executor, input, count, Math.min(count, numChunks), renderer);
+    }
+
+    private Batch submit(ForkJoinPool executor, final String[] input, int count, int numChunks,
+                         final Renderer<?> renderer) {
+        final Batch batch = new Batch(count, numChunks);
+        for (int chunk = 0; chunk < numChunks; chunk++) {
+            final int index = chunk;
+            final int start = (int) ((long) count * chunk / numChunks);
+            final int end = (int) ((long) count * (chunk + 1) / numChunks);
+            batch.tasks.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    EncoderScratch scratch = scratches.poll();
+                    if (scratch == null) {
+                        scratch = new EncoderScratch();
+                    }
+                    try {
+                        for (int i = start; i < end; i++) {
+                            batch.output[i] = renderer.render(Encoder.encode(input[i], ecLevel, hints, scratch));
+                        }
+                    } catch (WriterException we) {
+                        batch.errors[index] = we;
+                    } finally {
+                        scratches.add(scratch);
+                    }
+                }
+            }));
+        }
+        return batch;
+    }
+
+    /**
+     * The chunks of one window of contents and their results.
+     */
+    private static final class Batch {
+
+        final Object[] output;
+        // A chunk stops at its first failure; the failure of the earliest chunk is reported
+        final WriterException[] errors;
+        final List<ForkJoinTask<?>> tasks;
+
+        Batch(int count, int numChunks) {
+            output = new Object[count];
+            errors = new WriterException[numChunks];
+            tasks = new ArrayList<>(numChunks);
+        }
+
+        void await() throws WriterException {
+            try {
+                for (ForkJoinTask<?> task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new WriterException(ie);
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new WriterException(cause);
+            }
+            for (WriterException error : errors) {
+                if (error != null) {
+                    throw error;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> void write(Output<T> output) throws IOException {
+            for (int i = 0; i < this.output.length; i++) {
+                output.write((T) this.output[i]);
+                this.output[i] = null;
+            }
+        }
+
+        void cancel() {
+            for (ForkJoinTask<?> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private static final class BatchPool {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.google.zxing.qrcode.encoder;
+
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Holds everything one {@link QRCodeBeautify} run produces: the code and the per-module flags
+ * the renderer needs to decide where the embedded image may show through. The matrices are
+ * returned as copies, since the ideal one may be shared with other results through a {@link LogoCache}.
+ */
+public final class BeautifyResult {
+
+    private final QRCode code;
+    private final ByteMatrix basicNotChange;
+    private final ByteMatrix basicChange;
+    private final BitMatrix ideal;
+
+    BeautifyResult(QRCode code, ByteMatrix basicNotChange, ByteMatrix basicChange, BitMatrix ideal) {
+        this.code = code;
+        this.basicNotChange = basicNotChange;
+        this.basicChange = basicChange;
+        this.ideal = ideal;
+    }
+
+    public QRCode getCode() {
+        return code;
+    }
+
+    /**
+     * @return modules that are always rendered as code (function patterns), -1 everywhere else
+     */
+    public ByteMatrix getBasicNotChange() {
+        return basicNotChange.copy();
+    }
+
+    /**
+     * @return modules that carry format or version information, -1 everywhere else
+     */
+    public ByteMatrix getBasicChange() {
+        return basicChange.copy();
+    }
+
+    /**
+     * @return the binarized embedded image sampled at module resolution, or null for
+     * {@link QRCodeBeautify#idealCode}
+     */
+    public BitMatrix getIdeal() {
+        return ideal == null ? null : ideal.clone();
+    }
+
+}
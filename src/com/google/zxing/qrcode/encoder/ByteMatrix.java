@@ -73,6 +73,17 @@ public final class ByteMatrix {
         }
     }
 
+    /**
+     * @return a new matrix with the same size and values
+     */
+    public ByteMatrix copy() {
+        ByteMatrix copy = new ByteMatrix(width, height);
+        for (int y = 0; y < height; ++y) {
+            System.arraycopy(bytes[y], 0, copy.bytes[y], 0, width);
+        }
+        return copy;
+    }
+
     @Override
     public String toString() {
         StringBuilder result = new StringBuilder(2 * width * height + 2);
@@ -0,0 +1,41 @@
+package com.google.zxing.qrcode.encoder;
+
+import org.opencv.core.Mat;
+
+/**
+ * Weighted sum of several {@link ImportanceMap}s, for example edges and saliency.
+ */
+public final class CombinedImportanceMap implements ImportanceMap {
+
+    private final ImportanceMap[] maps;
+    private final float[] weights;
+
+    public CombinedImportanceMap(ImportanceMap[] maps, float[] weights) {
+        if (maps.length == 0 || maps.length != weights.length) {
+            throw new IllegalArgumentException("Need one weight per map");
+        }
+        for (float weight : weights) {
+            if (weight < 0.0f) {
+                throw new IllegalArgumentException("Weights must not be negative");
+            }
+        }
+        this.maps = maps.clone();
+        this.weights = weights.clone();
+    }
+
+    @Override
+    public float[] compute(Mat logo, int dimension, int moduleSize) {
+        float[] importance = new float[dimension * dimension];
+        for (int m = 0; m < maps.length; m++) {
+            if (weights[m] == 0.0f) {
+                continue;
+            }
+            float[] part = maps[m].compute(logo, dimension, moduleSize);
+            for (int i = 0; i < importance.length; i++) {
+                importance[i] += weights[m] * part[i];
+            }
+        }
+        return importance;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.google.zxing.qrcode.encoder;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Scores modules by the strength of the edges they cover, using a Sobel filter on the median
+ * blurred gray image. Each pixel contributes min(|dx| + |dy|, 255) / 255.
+ */
+public final class EdgeImportanceMap implements ImportanceMap {
+
+    @Override
+    public float[] compute(Mat logo, int dimension, int moduleSize) {
+        int width = dimension * moduleSize;
+        checkSize(logo, width);
+        Mat gray = toGray(logo);
+        Mat smoothed = new Mat();
+        Mat edgeX = new Mat();
+        Mat edgeY = new Mat();
+        Imgproc.medianBlur(gray, smoothed, 3);
+        Imgproc.Sobel(smoothed, edgeX, CvType.CV_16S, 0, 1, 3, 1, 0);
+        Imgproc.Sobel(smoothed, edgeY, CvType.CV_16S, 1, 0, 3, 1, 0);
+        // One copy out of OpenCV per response; everything else is plain array work.
+        short[] dx = new short[width * width];
+        short[] dy = new short[width * width];
+        edgeX.get(0, 0, dx);
+        edgeY.get(0, 0, dy);
+
+        int[] sums = new int[dimension * dimension];
+        for (int py = 0, offset = 0; py < width; py++) {
+            int rowOffset = (py / moduleSize) * dimension;
+            for (int px = 0; px < width; px++, offset++) {
+                int value = Math.abs(dx[offset]) + Math.abs(dy[offset]);
+                if (value > 255) {
+                    value = 255;
+                }
+                sums[rowOffset + px / moduleSize] += value;
+            }
+        }
+        float[] importance = new float[sums.length];
+        for (int i = 0; i < sums.length; i++) {
+            importance[i] = sums[i] / 255.0f;
+        }
+        return importance;
+    }
+
+    static void checkSize(Mat logo, int width) {
+        if (logo.cols() != width || logo.rows() != width) {
+            throw new IllegalArgumentException("Logo must be " + width + 'x' + width + " but was " +
+                    logo.cols() + 'x' + logo.rows());
+        }
+    }
+
+    static Mat toGray(Mat image) {
+        if (image.channels() == 1) {
+            return image;
+        }
+        Mat gray = new Mat();
+        Imgproc.cvtColor(image, gray, image.channels() == 4 ? Imgproc.COLOR_BGRA2GRAY : Imgproc.COLOR_BGR2GRAY);
+        return gray;
+    }
+
+}
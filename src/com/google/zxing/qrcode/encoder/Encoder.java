@@ -27,8 +27,6 @@ import com.google.zxing.qrcode.decoder.Mode;
 import com.google.zxing.qrcode.decoder.Version;
 
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -49,16 +47,10 @@ public final class Encoder {
 
     static final String DEFAULT_BYTE_MODE_ENCODING = "ISO-8859-1";
 
-    private Encoder() {
-    }
+    // Holds no state of its own, the generators are shared by the field
+    private static final ReedSolomonEncoder RS_ENCODER = new ReedSolomonEncoder(GenericGF.QR_CODE_FIELD_256);
 
-    // The mask penalty calculation is complicated.  See Table 21 of JISX0510:2004 (p.45) for details.
-    // Basically it applies four rules and summate all penalties.
-    private static int calculateMaskPenalty(ByteMatrix matrix) {
-        return MaskUtil.applyMaskPenaltyRule1(matrix)
-                + MaskUtil.applyMaskPenaltyRule2(matrix)
-                + MaskUtil.applyMaskPenaltyRule3(matrix)
-                + MaskUtil.applyMaskPenaltyRule4(matrix);
+    private Encoder() {
     }
 
     /**
@@ -75,6 +67,17 @@ public final class Encoder {
     public static QRCode encode(String content,
                                 ErrorCorrectionLevel ecLevel,
                                 Map<EncodeHintType, ?> hints) throws WriterException {
+        return encode(content, ecLevel, hints, new EncoderScratch());
+    }
+
+    /**
+     * @param scratch buffers to encode with. The matrix of the result is one of them, so it is
+     *                overwritten by the next code of the same version encoded with "scratch".
+     */
+    static QRCode encode(String content,
+                         ErrorCorrectionLevel ecLevel,
+                         Map<EncodeHintType, ?> hints,
+                         EncoderScratch scratch) throws WriterException {
 
         // Determine what character encoding has been specified by the caller, if any
         String encoding = hints == null ? null : (String) hints.get(EncodeHintType.CHARACTER_SET);
@@ -82,13 +85,23 @@ public final class Encoder {
             encoding = DEFAULT_BYTE_MODE_ENCODING;
         }
 
+        Boolean compact = hints == null ? null : (Boolean) hints.get(EncodeHintType.QR_COMPACT);
+        if (compact != null && compact) {
+            // Split the content into the mix of modes / segments that takes the fewest bits
+            Integer num = (Integer) hints.get(EncodeHintType.QR_VERSION);
+            MinimalEncoder.Result segmented = MinimalEncoder.encode(content, ecLevel, encoding,
+                    num == null ? null : Version.getVersionForNumber(num));
+            return encode(segmented.getBits(), segmented.getMode(), segmented.getVersion(), ecLevel, scratch);
+        }
+
         // Pick an encoding mode appropriate for the content. Note that this will not attempt to use
-        // multiple modes / segments even if that were more efficient. Twould be nice.
+        // multiple modes / segments, see EncodeHintType.QR_COMPACT for that.
         Mode mode = chooseMode(content, encoding);
 
         // This will store the header information, like mode and
         // length, as well as "header" segments like an ECI segment.
-        BitArray headerBits = new BitArray();
+        BitArray headerBits = scratch.headerBits;
+        headerBits.reset();
 
         // Append ECI segment if applicable
         if (mode == Mode.BYTE && !DEFAULT_BYTE_MODE_ENCODING.equals(encoding)) {
@@ -103,7 +116,8 @@ public final class Encoder {
 
         // Collect data within the com.google.zxing.main segment, separately, to count its size if needed. Don't add it to
         // com.google.zxing.main payload yet.
-        BitArray dataBits = new BitArray();
+        BitArray dataBits = scratch.dataBits;
+        dataBits.reset();
         appendBytes(content, mode, dataBits, encoding);
 
         // Hard part: need to know version to know how many bits length takes. But need to know how many
@@ -127,7 +141,8 @@ public final class Encoder {
         else
             version = chooseVersion(bitsNeeded, ecLevel);
 
-        BitArray headerAndDataBits = new BitArray();
+        BitArray headerAndDataBits = scratch.headerAndDataBits;
+        headerAndDataBits.reset();
         headerAndDataBits.appendBitArray(headerBits);
         // Find "length" of com.google.zxing.main segment and write it
         int numLetters = mode == Mode.BYTE ? dataBits.getSizeInBytes() : content.length();
@@ -135,6 +150,17 @@ public final class Encoder {
         // Put data together into the overall payload
         headerAndDataBits.appendBitArray(dataBits);
 
+        return encode(headerAndDataBits, mode, version, ecLevel, scratch);
+    }
+
+    /**
+     * Finishes the code from the header and data bits of all segments.
+     */
+    private static QRCode encode(BitArray headerAndDataBits,
+                                 Mode mode,
+                                 Version version,
+                                 ErrorCorrectionLevel ecLevel,
+                                 EncoderScratch scratch) throws WriterException {
         Version.ECBlocks ecBlocks = version.getECBlocksForLevel(ecLevel);
         int numDataBytes = version.getTotalCodewords() - ecBlocks.getTotalECCodewords();
 
@@ -145,7 +171,8 @@ public final class Encoder {
         BitArray finalBits = interleaveWithECBytes(headerAndDataBits,
                 version.getTotalCodewords(),
                 numDataBytes,
-                ecBlocks.getNumBlocks());
+                ecBlocks.getNumBlocks(),
+                scratch);
 
         QRCode qrCode = new QRCode();
 
@@ -154,9 +181,8 @@ public final class Encoder {
         qrCode.setVersion(version);
 
         //  Choose the mask pattern and set to "qrCode".
-        int dimension = version.getDimensionForVersion();
-        ByteMatrix matrix = new ByteMatrix(dimension, dimension);
-        int maskPattern = chooseMaskPattern(finalBits, ecLevel, version, matrix);
+        ByteMatrix matrix = scratch.getMatrix(version);
+        int maskPattern = chooseMaskPattern(finalBits, ecLevel, version);
         qrCode.setMaskPattern(maskPattern);
 
         // Build the matrix and set it to "qrCode".
@@ -231,42 +257,21 @@ public final class Encoder {
         return true;
     }
 
+    // The mask penalty calculation is complicated.  See Table 21 of JISX0510:2004 (p.45) for details.
+    // Basically it applies four rules and summate all penalties; the template does that for all mask
+    // patterns on bit-packed rows, see PackedMaskPenalty.
     private static int chooseMaskPattern(BitArray bits,
                                          ErrorCorrectionLevel ecLevel,
-                                         Version version,
-                                         ByteMatrix matrix) throws WriterException {
-
-        int minPenalty = Integer.MAX_VALUE;  // Lower penalty is better.
-        int bestMaskPattern = -1;
-        // We try all mask patterns to choose the best one.
-        for (int maskPattern = 0; maskPattern < QRCode.NUM_MASK_PATTERNS; maskPattern++) {
-            MatrixUtil.buildMatrix(bits, ecLevel, version, maskPattern, matrix);
-            int penalty = calculateMaskPenalty(matrix);
-            if (penalty < minPenalty) {
-                minPenalty = penalty;
-                bestMaskPattern = maskPattern;
-            }
-        }
-        return bestMaskPattern;
+                                         Version version) throws WriterException {
+        return MatrixTemplate.forVersion(version).chooseMaskPattern(bits, ecLevel);
     }
 
     private static Version chooseVersion(int numInputBits, ErrorCorrectionLevel ecLevel) throws WriterException {
-        // In the following comments, we use numbers of Version 7-H.
-        for (int versionNum = 1; versionNum <= 40; versionNum++) {
-            Version version = Version.getVersionForNumber(versionNum);
-            // numBytes = 196
-            int numBytes = version.getTotalCodewords();
-            // getNumECBytes = 130
-            Version.ECBlocks ecBlocks = version.getECBlocksForLevel(ecLevel);
-            int numEcBytes = ecBlocks.getTotalECCodewords();
-            // getNumDataBytes = 196 - 130 = 66
-            int numDataBytes = numBytes - numEcBytes;
-            int totalInputBytes = (numInputBits + 7) / 8;
-            if (numDataBytes >= totalInputBytes) {
-                return version;
-            }
+        Version version = QRCodeCapacity.getMinimumVersion(numInputBits, ecLevel);
+        if (version == null) {
+            throw new WriterException("Data too big");
         }
-        throw new WriterException("Data too big");
+        return version;
     }
 
     /**
@@ -364,60 +369,71 @@ public final class Encoder {
                                           int numTotalBytes,
                                           int numDataBytes,
                                           int numRSBlocks) throws WriterException {
+        return interleaveWithECBytes(bits, numTotalBytes, numDataBytes, numRSBlocks, new EncoderScratch());
+    }
+
+    /**
+     * As {@link #interleaveWithECBytes(BitArray, int, int, int)}, with the codewords of all blocks
+     * in one buffer of "scratch". The result is the interleaved bits of "scratch".
+     */
+    static BitArray interleaveWithECBytes(BitArray bits,
+                                          int numTotalBytes,
+                                          int numDataBytes,
+                                          int numRSBlocks,
+                                          EncoderScratch scratch) throws WriterException {
 
         // "bits" must have "getNumDataBytes" bytes of data.
         if (bits.getSizeInBytes() != numDataBytes) {
             throw new WriterException("Number of bits and data bytes does not match");
         }
 
-        // Step 1.  Divide data bytes into blocks and generate error correction bytes for them. We'll
-        // store the divided data bytes blocks and error correction bytes blocks into "blocks".
+        // Step 1.  Divide data bytes into blocks and generate error correction bytes for them. The
+        // data bytes of all blocks come first in "codewords", in block order, then their error
+        // correction bytes, which have the same length for every block.
+        byte[] codewords = scratch.getCodewords(numTotalBytes);
+        int[] numDataBytesInBlock = scratch.numDataBytesInBlock;
+        int[] numEcBytesInBlock = scratch.numEcBytesInBlock;
         int dataBytesOffset = 0;
-        int maxNumDataBytes = 0;
-        int maxNumEcBytes = 0;
-
-        // Since, we know the number of reedsolmon blocks, we can initialize the vector with the number.
-        Collection<BlockPair> blocks = new ArrayList<>(numRSBlocks);
+        int ecBytesOffset = numDataBytes;
 
         for (int i = 0; i < numRSBlocks; ++i) {
-            int[] numDataBytesInBlock = new int[1];
-            int[] numEcBytesInBlock = new int[1];
             getNumDataBytesAndNumECBytesForBlockID(
                     numTotalBytes, numDataBytes, numRSBlocks, i,
                     numDataBytesInBlock, numEcBytesInBlock);
 
             int size = numDataBytesInBlock[0];
-            byte[] dataBytes = new byte[size];
-            bits.toBytes(8 * dataBytesOffset, dataBytes, 0, size);
-            byte[] ecBytes = generateECBytes(dataBytes, numEcBytesInBlock[0]);
-            blocks.add(new BlockPair(dataBytes, ecBytes));
+            bits.toBytes(8 * dataBytesOffset, codewords, dataBytesOffset, size);
+            RS_ENCODER.encode(codewords, dataBytesOffset, size, codewords, ecBytesOffset, numEcBytesInBlock[0]);
 
-            maxNumDataBytes = Math.max(maxNumDataBytes, size);
-            maxNumEcBytes = Math.max(maxNumEcBytes, ecBytes.length);
-            dataBytesOffset += numDataBytesInBlock[0];
+            dataBytesOffset += size;
+            ecBytesOffset += numEcBytesInBlock[0];
         }
         if (numDataBytes != dataBytesOffset) {
             throw new WriterException("Data bytes does not match offset");
         }
 
-        BitArray result = new BitArray();
+        // The blocks of the first group are one data byte shorter than those of the second, if any.
+        int numEcBytes = numEcBytesInBlock[0];
+        int numBlocksInGroup1 = numRSBlocks - numTotalBytes % numRSBlocks;
+        int numDataBytesInGroup1 = numDataBytes / numRSBlocks;
+        int maxNumDataBytes = numBlocksInGroup1 == numRSBlocks ? numDataBytesInGroup1 : numDataBytesInGroup1 + 1;
+
+        BitArray result = scratch.finalBits;
+        result.reset();
 
         // First, place data blocks.
         for (int i = 0; i < maxNumDataBytes; ++i) {
-            for (BlockPair block : blocks) {
-                byte[] dataBytes = block.getDataBytes();
-                if (i < dataBytes.length) {
-                    result.appendBits(dataBytes[i], 8);
+            for (int block = 0; block < numRSBlocks; ++block) {
+                if (i < numDataBytesInGroup1 || block >= numBlocksInGroup1) {
+                    int blockOffset = block * numDataBytesInGroup1 + Math.max(0, block - numBlocksInGroup1);
+                    result.appendBits(codewords[blockOffset + i], 8);
                 }
             }
         }
         // Then, place error correction blocks.
-        for (int i = 0; i < maxNumEcBytes; ++i) {
-            for (BlockPair block : blocks) {
-                byte[] ecBytes = block.getErrorCorrectionBytes();
-                if (i < ecBytes.length) {
-                    result.appendBits(ecBytes[i], 8);
-                }
+        for (int i = 0; i < numEcBytes; ++i) {
+            for (int block = 0; block < numRSBlocks; ++block) {
+                result.appendBits(codewords[numDataBytes + block * numEcBytes + i], 8);
             }
         }
         if (numTotalBytes != result.getSizeInBytes()) {  // Should be same.
@@ -429,17 +445,8 @@ public final class Encoder {
     }
 
     static byte[] generateECBytes(byte[] dataBytes, int numEcBytesInBlock) {
-        int numDataBytes = dataBytes.length;
-        int[] toEncode = new int[numDataBytes + numEcBytesInBlock];
-        for (int i = 0; i < numDataBytes; i++) {
-            toEncode[i] = dataBytes[i] & 0xFF;
-        }
-        new ReedSolomonEncoder(GenericGF.QR_CODE_FIELD_256).encode(toEncode, numEcBytesInBlock);
-
         byte[] ecBytes = new byte[numEcBytesInBlock];
-        for (int i = 0; i < numEcBytesInBlock; i++) {
-            ecBytes[i] = (byte) toEncode[numDataBytes + i];
-        }
+        RS_ENCODER.encode(dataBytes, 0, dataBytes.length, ecBytes, 0, numEcBytesInBlock);
         return ecBytes;
     }
 
@@ -574,7 +581,7 @@ public final class Encoder {
         }
     }
 
-    private static void appendECI(CharacterSetECI eci, BitArray bits) {
+    static void appendECI(CharacterSetECI eci, BitArray bits) {
         bits.appendBits(Mode.ECI.getBits(), 4);
         // This is correct for values up to 127, which is all we need now.
         bits.appendBits(eci.getValue(), 8);
@@ -0,0 +1,50 @@
+package com.google.zxing.qrcode.encoder;
+
+import com.google.zxing.common.BitArray;
+import com.google.zxing.qrcode.decoder.Version;
+
+/**
+ * The buffers {@link Encoder} fills while it encodes one content, kept so that the next content
+ * encoded with the same scratch reuses them: the header and data bits, the codewords of all
+ * blocks, the interleaved bits and one matrix per version. Everything grows to the largest code
+ * seen and is then reused as is.
+ *
+ * The matrix of a code encoded with a scratch belongs to the scratch, so it is overwritten by the
+ * next code of the same version. A scratch is used by one thread at a time.
+ */
+final class EncoderScratch {
+
+    final BitArray headerBits = new BitArray();
+    final BitArray dataBits = new BitArray();
+    final BitArray headerAndDataBits = new BitArray();
+    final BitArray finalBits = new BitArray();
+    final int[] numDataBytesInBlock = new int[1];
+    final int[] numEcBytesInBlock = new int[1];
+    private byte[] codewords = new byte[0];
+    private final ByteMatrix[] matrices = new ByteMatrix[40];
+
+    /**
+     * @return an array for at least "numTotalBytes" codewords, with unspecified contents
+     */
+    byte[] getCodewords(int numTotalBytes) {
+        if (codewords.length < numTotalBytes) {
+            codewords = new byte[numTotalBytes];
+        }
+        return codewords;
+    }
+
+    /**
+     * @return the matrix for "version", with unspecified contents
+     */
+    ByteMatrix getMatrix(Version version) {
+        int index = version.getVersionNumber() - 1;
+        ByteMatrix matrix = matrices[index];
+        if (matrix == null) {
+            int dimension = version.getDimensionForVersion();
+            matrix = new ByteMatrix(dimension, dimension);
+            matrices[index] = matrix;
+        }
+        return matrix;
+    }
+
+}
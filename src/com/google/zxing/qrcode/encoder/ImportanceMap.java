@@ -0,0 +1,21 @@
+package com.google.zxing.qrcode.encoder;
+
+import org.opencv.core.Mat;
+
+/**
+ * Scores how much each module of the embedded image matters visually. {@link QRCodeBeautify}
+ * frees the error correction codewords that fall on the most important modules, so those keep
+ * showing the image. Implementations must be safe to call from several threads at once.
+ */
+public interface ImportanceMap {
+
+    /**
+     * @param logo embedded image, resized to {@code dimension * moduleSize} pixels square
+     * @param dimension number of modules per side of the code
+     * @param moduleSize size of a module in pixels
+     * @return importance of each module in row-major order ({@code y * dimension + x}). Values are
+     * never negative; a module fully covered by the strongest feature scores moduleSize^2.
+     */
+    float[] compute(Mat logo, int dimension, int moduleSize);
+
+}
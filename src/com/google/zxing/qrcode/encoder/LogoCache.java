@@ -0,0 +1,178 @@
+package com.google.zxing.qrcode.encoder;
+
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Version;
+import org.opencv.core.Mat;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the image processing results of recently used logos: the resized logo, its binarized
+ * "ideal" code and its importance map. Entries are keyed by a hash of the original logo pixels,
+ * the {@link ImportanceMap} that scored it, the version, the error correction level (whose format bits are part of the ideal rendering)
+ * and the module size. The cache holds at most a configurable number of bytes and drops the least
+ * recently used entries first. It is safe to share between threads.
+ */
+public final class LogoCache {
+
+    private final long maxBytes;
+    private final Map<Key, Entry> entries;
+    private long bytes;
+
+    /**
+     * @param maxBytes approximate upper bound for the memory the cached entries take
+     */
+    public LogoCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @return a hash of the pixel data of {@code logo}, to use as the logo part of the cache key.
+     * The pixels are read on every call, so a {@link Mat} that is reused for another logo gets
+     * that logo's entries.
+     */
+    public static byte[] hash(Mat logo) {
+        int channels = logo.channels();
+        byte[] pixels = new byte[logo.rows() * logo.cols() * channels];
+        logo.get(0, 0, pixels);
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(nsae);
+        }
+        sha1.update(new byte[] {
+                (byte) (logo.rows() >> 24), (byte) (logo.rows() >> 16), (byte) (logo.rows() >> 8), (byte) logo.rows(),
+                (byte) (logo.cols() >> 24), (byte) (logo.cols() >> 16), (byte) (logo.cols() >> 8), (byte) logo.cols(),
+                (byte) channels});
+        return sha1.digest(pixels);
+    }
+
+    public Entry get(byte[] logoHash, ImportanceMap importanceMap, Version version, ErrorCorrectionLevel ecLevel,
+                     int moduleSize) {
+        Key key = new Key(logoHash, importanceMap, version.getVersionNumber(), ecLevel, moduleSize);
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    /**
+     * Adds an entry, evicting the least recently used ones until the cache fits its budget again.
+     * An entry that is bigger than the whole budget is not cached at all.
+     */
+    public void put(byte[] logoHash, ImportanceMap importanceMap, Version version, ErrorCorrectionLevel ecLevel,
+                    int moduleSize, Entry entry) {
+        long size = entry.getSizeInBytes();
+        if (size > maxBytes) {
+            return;
+        }
+        Key key = new Key(logoHash, importanceMap, version.getVersionNumber(), ecLevel, moduleSize);
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.getSizeInBytes();
+            }
+            bytes += size;
+            Iterator<Entry> lru = entries.values().iterator();
+            while (bytes > maxBytes && lru.hasNext()) {
+                bytes -= lru.next().getSizeInBytes();
+                lru.remove();
+            }
+        }
+    }
+
+    public long getSizeInBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * The prepared data of one logo. It is shared by every code that hits the cache, so none of
+     * its parts may be modified.
+     */
+    public static final class Entry {
+
+        private final Mat logo;
+        private final BitMatrix ideal;
+        private final float[] importance;
+
+        public Entry(Mat logo, BitMatrix ideal, float[] importance) {
+            this.logo = logo;
+            this.ideal = ideal;
+            this.importance = importance;
+        }
+
+        /**
+         * @return the logo resized to the code's dimension times the module size
+         */
+        public Mat getLogo() {
+            return logo;
+        }
+
+        public BitMatrix getIdeal() {
+            return ideal;
+        }
+
+        public float[] getImportance() {
+            return importance;
+        }
+
+        long getSizeInBytes() {
+            return logo.total() * logo.elemSize()
+                    + (long) ideal.getRowSize() * ideal.getHeight() * 4
+                    + (long) importance.length * 4;
+        }
+    }
+
+    private static final class Key {
+        private final byte[] hash;
+        // Compared by identity: the importance of an entry is only valid for the map that computed it
+        private final ImportanceMap importanceMap;
+        private final int version;
+        private final ErrorCorrectionLevel ecLevel;
+        private final int moduleSize;
+
+        Key(byte[] hash, ImportanceMap importanceMap, int version, ErrorCorrectionLevel ecLevel, int moduleSize) {
+            this.hash = hash;
+            this.importanceMap = importanceMap;
+            this.version = version;
+            this.ecLevel = ecLevel;
+            this.moduleSize = moduleSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return importanceMap == other.importanceMap && version == other.version && ecLevel == other.ecLevel && moduleSize == other.moduleSize &&
+                    Arrays.equals(hash, other.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return (((Arrays.hashCode(hash) * 31 + System.identityHashCode(importanceMap)) * 31 + version) * 31 + ecLevel.ordinal()) * 31 + moduleSize;
+        }
+    }
+
+}
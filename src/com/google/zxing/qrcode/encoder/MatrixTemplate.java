@@ -0,0 +1,275 @@
+package com.google.zxing.qrcode.encoder;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Version;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The parts of a QR Code matrix that only depend on the version: the function patterns, the
+ * version information and the order in which the data modules are filled. Building a matrix from
+ * a template is a copy of the pattern rows, the type information and one pass over the data
+ * modules, instead of redoing all the {@link MatrixUtil} steps for every mask pattern.
+ *
+ * Templates are immutable and built at most a few times per version, so they are shared freely.
+ */
+final class MatrixTemplate {
+
+    private static final AtomicReferenceArray<MatrixTemplate> TEMPLATES = new AtomicReferenceArray<>(40);
+
+    // Function patterns and version info; type info cells hold a placeholder and data cells are -1
+    private final byte[][] patterns;
+    // The same split in two: the basic patterns of MatrixUtil.embedBasicPatterns(), and the version
+    // info with placeholder type info cells. Cells outside each part are -1.
+    private final byte[][] basicPatterns;
+    private final byte[][] formatInformation;
+    // Data module coordinates in the zig-zag order of 8.7.3 of JISX0510:2004
+    private final int[] dataX;
+    private final int[] dataY;
+    // Bit i of maskBits[n] is the data mask bit of mask pattern i at the n-th data module
+    private final byte[] maskBits;
+    // The cells of the type info bits, see MatrixUtil.getTypeInfoCoordinates()
+    private final int[] typeInfoX = new int[30];
+    private final int[] typeInfoY = new int[30];
+    // The same data packed as in PackedMaskPenalty, by rows and by columns: dark function pattern
+    // modules other than type info, and the modules each mask pattern flips
+    private final long[][] patternRows;
+    private final long[][] patternCols;
+    private final long[][][] maskRows;
+    private final long[][][] maskCols;
+
+    private MatrixTemplate(Version version) throws WriterException {
+        int dimension = version.getDimensionForVersion();
+        ByteMatrix matrix = new ByteMatrix(dimension, dimension);
+        MatrixUtil.clearMatrix(matrix);
+        MatrixUtil.embedBasicPatterns(version, matrix);
+        MatrixUtil.embedTypeInfo(ErrorCorrectionLevel.L, 0, matrix);
+        MatrixUtil.maybeEmbedVersionInfo(version, matrix);
+        patterns = matrix.getArray();
+
+        ByteMatrix basic = new ByteMatrix(dimension, dimension);
+        MatrixUtil.clearMatrix(basic);
+        MatrixUtil.embedBasicPatterns(version, basic);
+        basicPatterns = basic.getArray();
+        ByteMatrix format = new ByteMatrix(dimension, dimension);
+        MatrixUtil.clearMatrix(format);
+        MatrixUtil.embedTypeInfo(ErrorCorrectionLevel.L, 0, format);
+        MatrixUtil.maybeEmbedVersionInfo(version, format);
+        formatInformation = format.getArray();
+
+        int numDataModules = 0;
+        for (byte[] row : patterns) {
+            for (byte value : row) {
+                if (value == -1) {
+                    numDataModules++;
+                }
+            }
+        }
+        dataX = new int[numDataModules];
+        dataY = new int[numDataModules];
+        maskBits = new byte[numDataModules];
+
+        int index = 0;
+        int direction = -1;
+        // Start from the right bottom cell.
+        int x = dimension - 1;
+        int y = dimension - 1;
+        while (x > 0) {
+            // Skip the vertical timing pattern.
+            if (x == 6) {
+                x -= 1;
+            }
+            while (y >= 0 && y < dimension) {
+                for (int i = 0; i < 2; ++i) {
+                    int xx = x - i;
+                    if (patterns[y][xx] != -1) {
+                        continue;
+                    }
+                    dataX[index] = xx;
+                    dataY[index] = y;
+                    int bits = 0;
+                    for (int maskPattern = 0; maskPattern < QRCode.NUM_MASK_PATTERNS; maskPattern++) {
+                        if (MaskUtil.getDataMaskBit(maskPattern, xx, y)) {
+                            bits |= 1 << maskPattern;
+                        }
+                    }
+                    maskBits[index] = (byte) bits;
+                    index++;
+                }
+                y += direction;
+            }
+            direction = -direction;  // Reverse the direction.
+            y += direction;
+            x -= 2;  // Move to the left.
+        }
+
+        MatrixUtil.getTypeInfoCoordinates(dimension, typeInfoX, typeInfoY);
+        int words = PackedMaskPenalty.getWords(dimension);
+        patternRows = new long[dimension][words];
+        patternCols = new long[dimension][words];
+        for (y = 0; y < dimension; y++) {
+            for (x = 0; x < dimension; x++) {
+                if (patterns[y][x] == 1) {
+                    setPacked(patternRows, patternCols, x, y);
+                }
+            }
+        }
+        for (int i = 0; i < typeInfoX.length; i++) {
+            clearPacked(patternRows, patternCols, typeInfoX[i], typeInfoY[i]);
+        }
+        maskRows = new long[QRCode.NUM_MASK_PATTERNS][dimension][words];
+        maskCols = new long[QRCode.NUM_MASK_PATTERNS][dimension][words];
+        for (int maskPattern = 0; maskPattern < QRCode.NUM_MASK_PATTERNS; maskPattern++) {
+            for (int i = 0; i < numDataModules; i++) {
+                if (((maskBits[i] >> maskPattern) & 1) != 0) {
+                    setPacked(maskRows[maskPattern], maskCols[maskPattern], dataX[i], dataY[i]);
+                }
+            }
+        }
+    }
+
+    static MatrixTemplate forVersion(Version version) throws WriterException {
+        int index = version.getVersionNumber() - 1;
+        MatrixTemplate template = TEMPLATES.get(index);
+        if (template == null) {
+            // Two threads may both build it; either result will do
+            template = new MatrixTemplate(version);
+            TEMPLATES.set(index, template);
+        }
+        return template;
+    }
+
+    /**
+     * @return number of modules that carry data or remainder bits
+     */
+    int getNumDataModules() {
+        return dataX.length;
+    }
+
+    /**
+     * Same result as {@link MatrixUtil#buildMatrix}: stores the matrix of "dataBits" with
+     * "ecLevel" and "maskPattern" in "matrix", which must have this template's dimension.
+     */
+    void buildMatrix(BitArray dataBits, ErrorCorrectionLevel ecLevel, int maskPattern, ByteMatrix matrix)
+            throws WriterException {
+        int numBits = dataBits.getSize();
+        if (numBits > dataX.length) {
+            throw new WriterException("Not all bits consumed: " + dataX.length + '/' + numBits);
+        }
+        buildFunctionPatterns(ecLevel, maskPattern, matrix);
+        byte[][] array = matrix.getArray();
+        for (int i = 0; i < dataX.length; i++) {
+            // Bits past the end are the remainder bits, which are 0 before masking
+            int bit = i < numBits && dataBits.get(i) ? 1 : 0;
+            array[dataY[i]][dataX[i]] = (byte) (bit ^ ((maskBits[i] >> maskPattern) & 1));
+        }
+    }
+
+    /**
+     * Stores the function patterns, type information and version information for "ecLevel" and
+     * "maskPattern" in "matrix", leaving the data modules empty (-1).
+     */
+    void buildFunctionPatterns(ErrorCorrectionLevel ecLevel, int maskPattern, ByteMatrix matrix)
+            throws WriterException {
+        copy(patterns, matrix);
+        MatrixUtil.embedTypeInfo(ecLevel, maskPattern, matrix);
+    }
+
+    /**
+     * Stores what {@link MatrixUtil#embedBasicPatterns} would in a cleared "matrix".
+     */
+    void copyBasicPatterns(ByteMatrix matrix) {
+        copy(basicPatterns, matrix);
+    }
+
+    /**
+     * Stores the type information for "ecLevel" and "maskPattern" and the version information in
+     * "matrix"; the other cells are cleared.
+     */
+    void buildFormatInformation(ErrorCorrectionLevel ecLevel, int maskPattern, ByteMatrix matrix)
+            throws WriterException {
+        copy(formatInformation, matrix);
+        MatrixUtil.embedTypeInfo(ecLevel, maskPattern, matrix);
+    }
+
+    private static void copy(byte[][] source, ByteMatrix matrix) {
+        byte[][] array = matrix.getArray();
+        for (int y = 0; y < source.length; y++) {
+            System.arraycopy(source[y], 0, array[y], 0, source[y].length);
+        }
+    }
+
+    /**
+     * Scores all mask patterns for "dataBits" and "ecLevel" with the penalty rules of {@link MaskUtil}
+     * and returns the one with the lowest penalty, the lowest number on a tie. The data modules are
+     * packed once; each mask is then an XOR with its precomputed plane.
+     */
+    int chooseMaskPattern(BitArray dataBits, ErrorCorrectionLevel ecLevel) throws WriterException {
+        int numBits = dataBits.getSize();
+        if (numBits > dataX.length) {
+            throw new WriterException("Not all bits consumed: " + dataX.length + '/' + numBits);
+        }
+        int dimension = patterns.length;
+        int words = PackedMaskPenalty.getWords(dimension);
+        long[][] dataRows = new long[dimension][words];
+        long[][] dataCols = new long[dimension][words];
+        for (int i = 0; i < numBits; i++) {
+            if (dataBits.get(i)) {
+                setPacked(dataRows, dataCols, dataX[i], dataY[i]);
+            }
+        }
+
+        long[][] rows = new long[dimension][words];
+        long[][] cols = new long[dimension][words];
+        PackedMaskPenalty penalty = new PackedMaskPenalty(dimension);
+        int minPenalty = Integer.MAX_VALUE;  // Lower penalty is better.
+        int bestMaskPattern = -1;
+        for (int maskPattern = 0; maskPattern < QRCode.NUM_MASK_PATTERNS; maskPattern++) {
+            for (int i = 0; i < dimension; i++) {
+                for (int w = 0; w < words; w++) {
+                    rows[i][w] = patternRows[i][w] | (dataRows[i][w] ^ maskRows[maskPattern][i][w]);
+                    cols[i][w] = patternCols[i][w] | (dataCols[i][w] ^ maskCols[maskPattern][i][w]);
+                }
+            }
+            BitArray typeInfoBits = new BitArray();
+            MatrixUtil.makeTypeInfoBits(ecLevel, maskPattern, typeInfoBits);
+            for (int i = 0; i < 15; i++) {
+                if (typeInfoBits.get(14 - i)) {
+                    setPacked(rows, cols, typeInfoX[2 * i], typeInfoY[2 * i]);
+                    setPacked(rows, cols, typeInfoX[2 * i + 1], typeInfoY[2 * i + 1]);
+                }
+            }
+            int maskPenalty = penalty.calculate(rows, cols);
+            if (maskPenalty < minPenalty) {
+                minPenalty = maskPenalty;
+                bestMaskPattern = maskPattern;
+            }
+        }
+        return bestMaskPattern;
+    }
+
+    /**
+     * Like {@link MatrixUtil#buildDataBitsIndex}: stores the coordinates of the first "dataSize"
+     * data modules in "locX" and "locY".
+     */
+    void getDataBitsIndex(int dataSize, int[] locX, int[] locY) throws WriterException {
+        if (dataSize > dataX.length) {
+            throw new WriterException("Not all bits consumed: " + dataX.length + '/' + dataSize);
+        }
+        System.arraycopy(dataX, 0, locX, 0, dataSize);
+        System.arraycopy(dataY, 0, locY, 0, dataSize);
+    }
+
+    private static void setPacked(long[][] rows, long[][] cols, int x, int y) {
+        rows[y][x >> 6] |= 1L << x;
+        cols[x][y >> 6] |= 1L << y;
+    }
+
+    private static void clearPacked(long[][] rows, long[][] cols, int x, int y) {
+        rows[y][x >> 6] &= ~(1L << x);
+        cols[x][y >> 6] &= ~(1L << y);
+    }
+
+}
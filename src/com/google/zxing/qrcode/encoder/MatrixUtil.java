@@ -134,14 +134,9 @@ final class MatrixUtil {
                             Version version,
                             int maskPattern,
                             ByteMatrix matrix) throws WriterException {
-        clearMatrix(matrix);
-        embedBasicPatterns(version, matrix);
-        // Type information appear with any version.
-        embedTypeInfo(ecLevel, maskPattern, matrix);
-        // Version info appear if version >= 7.
-        maybeEmbedVersionInfo(version, matrix);
-        // Data should be embedded at end.
-        embedDataBits(dataBits, maskPattern, matrix);
+        // The patterns and the data module order come from a per-version template, see
+        // embedBasicPatterns(), embedTypeInfo(), maybeEmbedVersionInfo() and embedDataBits().
+        MatrixTemplate.forVersion(version).buildMatrix(dataBits, ecLevel, maskPattern, matrix);
     }
 
     // Embed basic patterns. On success, modify the matrix and return true.
@@ -192,6 +187,22 @@ final class MatrixUtil {
         }
     }
 
+    // Store the cells of type information bit i (LSB first, as embedTypeInfo() places them) in
+    // x[2i], y[2i] and x[2i + 1], y[2i + 1], for a matrix of the given dimension.
+    static void getTypeInfoCoordinates(int dimension, int[] x, int[] y) {
+        for (int i = 0; i < 15; ++i) {
+            x[2 * i] = TYPE_INFO_COORDINATES[i][0];
+            y[2 * i] = TYPE_INFO_COORDINATES[i][1];
+            if (i < 8) {
+                x[2 * i + 1] = dimension - i - 1;
+                y[2 * i + 1] = 8;
+            } else {
+                x[2 * i + 1] = 8;
+                y[2 * i + 1] = dimension - 7 + (i - 8);
+            }
+        }
+    }
+
     // Embed version information if need be. On success, modify the matrix and return true.
     // See 8.10 of JISX0510:2004 (p.47) for how to embed version information.
     static void maybeEmbedVersionInfo(Version version, ByteMatrix matrix) throws WriterException {
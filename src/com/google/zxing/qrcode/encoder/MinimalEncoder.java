@@ -0,0 +1,310 @@
+package com.google.zxing.qrcode.encoder;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.CharacterSetECI;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Mode;
+import com.google.zxing.qrcode.decoder.Version;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes content as a sequence of NUMERIC, ALPHANUMERIC, BYTE and KANJI segments, choosing the
+ * split with the fewest bits by dynamic programming over the characters.
+ *
+ * The state after a character is its mode plus how many characters of an unfinished group (three
+ * digits, two alphanumerics) are already counted, so every step costs an exact number of bits:
+ * a digit costs 4, 3, 3 bits at group positions 0, 1, 2, an alphanumeric 6 then 5, a byte 8 and
+ * a Kanji 13. Opening a segment adds the mode indicator and the character count. The size of the
+ * count depends on the version range (1-9, 10-26, 27-40), so each range is solved separately and
+ * the smallest version that fits wins.
+ *
+ * All BYTE segments use the one character encoding given; like {@link Encoder}, a non-default
+ * encoding is announced by a single ECI at the start. KANJI is only used when that encoding is
+ * Shift_JIS.
+ */
+final class MinimalEncoder {
+
+    private static final int[][] VERSION_RANGES = {{1, 9}, {10, 26}, {27, 40}};
+
+    private static final int NUMERIC_0 = 0;
+    private static final int NUMERIC_1 = 1;
+    private static final int NUMERIC_2 = 2;
+    private static final int ALPHANUMERIC_0 = 3;
+    private static final int ALPHANUMERIC_1 = 4;
+    private static final int BYTE = 5;
+    private static final int KANJI = 6;
+    private static final int NUM_STATES = 7;
+
+    private static final Mode[] STATE_MODES = {
+            Mode.NUMERIC, Mode.NUMERIC, Mode.NUMERIC,
+            Mode.ALPHANUMERIC, Mode.ALPHANUMERIC,
+            Mode.BYTE,
+            Mode.KANJI,
+    };
+
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+    private MinimalEncoder() {
+    }
+
+    /**
+     * The header and data bits of a segmented encoding, without terminator and padding.
+     */
+    static final class Result {
+        private final Version version;
+        private final Mode mode;
+        private final BitArray bits;
+
+        Result(Version version, Mode mode, BitArray bits) {
+            this.version = version;
+            this.mode = mode;
+            this.bits = bits;
+        }
+
+        Version getVersion() {
+            return version;
+        }
+
+        /**
+         * @return the mode of the first segment
+         */
+        Mode getMode() {
+            return mode;
+        }
+
+        BitArray getBits() {
+            return bits;
+        }
+    }
+
+    /**
+     * @param version the version to use, or null to pick the smallest one that fits
+     */
+    static Result encode(String content, ErrorCorrectionLevel ecLevel, String encoding, Version version)
+            throws WriterException {
+        int[] byteLengths = getByteLengths(content, encoding);
+        boolean kanji = "Shift_JIS".equals(encoding);
+        if (version != null) {
+            List<Segment> segments = segment(content, byteLengths, kanji, version);
+            return new Result(version, segments.get(0).mode, toBits(content, encoding, segments, version));
+        }
+        for (int[] range : VERSION_RANGES) {
+            Version first = Version.getVersionForNumber(range[0]);
+            List<Segment> segments = segment(content, byteLengths, kanji, first);
+            BitArray bits = toBits(content, encoding, segments, first);
+            // A version below the range that has room would also have room with its own, shorter counts
+            Version candidate = QRCodeCapacity.getMinimumVersion(bits.getSize(), ecLevel);
+            if (candidate != null && candidate.getVersionNumber() <= range[1]) {
+                if (candidate.getVersionNumber() < range[0]) {
+                    candidate = first;
+                }
+                return new Result(candidate, segments.get(0).mode, bits);
+            }
+        }
+        throw new WriterException("Data too big");
+    }
+
+    private static final class Segment {
+        private final Mode mode;
+        private final int start;
+        private final int end;
+
+        Segment(Mode mode, int start, int end) {
+            this.mode = mode;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * @return the number of bytes each character takes in "encoding"; the low half of a surrogate
+     * pair counts 0 and its high half the whole pair
+     */
+    private static int[] getByteLengths(String content, String encoding) throws WriterException {
+        int length = content.length();
+        int[] byteLengths = new int[length];
+        try {
+            for (int i = 0; i < length; i++) {
+                int end = i + 1;
+                if (Character.isHighSurrogate(content.charAt(i)) && end < length &&
+                        Character.isLowSurrogate(content.charAt(end))) {
+                    end++;
+                }
+                byteLengths[i] = content.substring(i, end).getBytes(encoding).length;
+                i = end - 1;
+            }
+        } catch (UnsupportedEncodingException uee) {
+            throw new WriterException(uee);
+        }
+        return byteLengths;
+    }
+
+    private static boolean isKanji(char c) {
+        byte[] bytes;
+        try {
+            bytes = String.valueOf(c).getBytes("Shift_JIS");
+        } catch (UnsupportedEncodingException ignored) {
+            return false;
+        }
+        if (bytes.length != 2) {
+            return false;
+        }
+        int code = ((bytes[0] & 0xFF) << 8) | (bytes[1] & 0xFF);
+        return (code >= 0x8140 && code <= 0x9ffc) || (code >= 0xe040 && code <= 0xebbf);
+    }
+
+    /**
+     * Finds the cheapest split of "content" for the character count sizes of "version".
+     */
+    private static List<Segment> segment(String content, int[] byteLengths, boolean kanji, Version version) {
+        int length = content.length();
+        List<Segment> segments = new ArrayList<>();
+        if (length == 0) {
+            segments.add(new Segment(Mode.BYTE, 0, 0));
+            return segments;
+        }
+        int[] headerBits = new int[NUM_STATES];
+        for (int state = 0; state < NUM_STATES; state++) {
+            headerBits[state] = 4 + STATE_MODES[state].getCharacterCountBits(version);
+        }
+
+        // cost[i][state] is the fewest bits for the first i characters ending in "state"
+        int[][] cost = new int[length + 1][NUM_STATES];
+        int[][] previous = new int[length + 1][NUM_STATES];
+        for (int[] row : cost) {
+            Arrays.fill(row, INFINITY);
+        }
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            boolean numeric = c >= '0' && c <= '9';
+            boolean alphanumeric = Encoder.getAlphanumericCode(c) != -1;
+            boolean isKanji = kanji && isKanji(c);
+            int byteBits = 8 * byteLengths[i];
+            int[] from = cost[i];
+            int[] to = cost[i + 1];
+            int[] back = previous[i + 1];
+            for (int state = -1; state < NUM_STATES; state++) {
+                int base;
+                if (state == -1) {
+                    if (i > 0) {
+                        continue;
+                    }
+                    base = 0;
+                } else {
+                    base = from[state];
+                    if (base >= INFINITY) {
+                        continue;
+                    }
+                }
+                Mode mode = state == -1 ? null : STATE_MODES[state];
+                if (numeric) {
+                    if (mode == Mode.NUMERIC) {
+                        int next = (state + 1) % 3;
+                        relax(to, back, next, base + (state == NUMERIC_0 ? 4 : 3), state);
+                    } else {
+                        relax(to, back, NUMERIC_1, base + headerBits[NUMERIC_0] + 4, state);
+                    }
+                }
+                if (alphanumeric) {
+                    if (mode == Mode.ALPHANUMERIC) {
+                        int next = state == ALPHANUMERIC_0 ? ALPHANUMERIC_1 : ALPHANUMERIC_0;
+                        relax(to, back, next, base + (state == ALPHANUMERIC_0 ? 6 : 5), state);
+                    } else {
+                        relax(to, back, ALPHANUMERIC_1, base + headerBits[ALPHANUMERIC_0] + 6, state);
+                    }
+                }
+                if (isKanji) {
+                    relax(to, back, KANJI, base + (mode == Mode.KANJI ? 13 : headerBits[KANJI] + 13), state);
+                }
+                // Any character can be a byte; the low half of a surrogate pair only continues one
+                if (mode == Mode.BYTE) {
+                    relax(to, back, BYTE, base + byteBits, state);
+                } else if (byteBits > 0) {
+                    relax(to, back, BYTE, base + headerBits[BYTE] + byteBits, state);
+                }
+            }
+        }
+
+        int state = 0;
+        for (int s = 1; s < NUM_STATES; s++) {
+            if (cost[length][s] < cost[length][state]) {
+                state = s;
+            }
+        }
+        Mode[] modes = new Mode[length];
+        for (int i = length; i > 0; i--) {
+            modes[i - 1] = STATE_MODES[state];
+            state = previous[i][state];
+        }
+
+        int maxBytes = (1 << Mode.BYTE.getCharacterCountBits(version)) - 1;
+        int start = 0;
+        for (int i = 1; i <= length; i++) {
+            if (i == length || modes[i] != modes[start]) {
+                Mode mode = modes[start];
+                int maxCount = mode == Mode.BYTE ? maxBytes : (1 << mode.getCharacterCountBits(version)) - 1;
+                // Segments too long for the character count are cut into several
+                int count = 0;
+                int segmentStart = start;
+                for (int j = start; j < i; j++) {
+                    int size = mode == Mode.BYTE ? byteLengths[j] : 1;
+                    if (count + size > maxCount) {
+                        segments.add(new Segment(mode, segmentStart, j));
+                        segmentStart = j;
+                        count = 0;
+                    }
+                    count += size;
+                }
+                segments.add(new Segment(mode, segmentStart, i));
+                start = i;
+            }
+        }
+        return segments;
+    }
+
+    private static void relax(int[] to, int[] back, int state, int cost, int from) {
+        if (cost < to[state]) {
+            to[state] = cost;
+            back[state] = from;
+        }
+    }
+
+    private static BitArray toBits(String content, String encoding, List<Segment> segments, Version version)
+            throws WriterException {
+        BitArray bits = new BitArray();
+        if (!Encoder.DEFAULT_BYTE_MODE_ENCODING.equals(encoding)) {
+            for (Segment segment : segments) {
+                if (segment.mode == Mode.BYTE) {
+                    CharacterSetECI eci = CharacterSetECI.getCharacterSetECIByName(encoding);
+                    if (eci != null) {
+                        Encoder.appendECI(eci, bits);
+                    }
+                    break;
+                }
+            }
+        }
+        for (Segment segment : segments) {
+            String text = content.substring(segment.start, segment.end);
+            Encoder.appendModeInfo(segment.mode, bits);
+            int numLetters;
+            if (segment.mode == Mode.BYTE) {
+                try {
+                    numLetters = text.getBytes(encoding).length;
+                } catch (UnsupportedEncodingException uee) {
+                    throw new WriterException(uee);
+                }
+            } else {
+                numLetters = text.length();
+            }
+            Encoder.appendLengthInfo(numLetters, version, segment.mode, bits);
+            Encoder.appendBytes(text, segment.mode, bits, encoding);
+        }
+        return bits;
+    }
+
+}
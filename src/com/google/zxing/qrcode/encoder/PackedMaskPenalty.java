@@ -0,0 +1,180 @@
+package com.google.zxing.qrcode.encoder;
+
+import java.util.Arrays;
+
+/**
+ * Computes the same mask penalty as the four rules of {@link MaskUtil}, but on a matrix packed
+ * into bits: each row, and each column, is an array of longs with bit (i & 63) of word (i >> 6)
+ * holding module i. The rules become shifts, ANDs and bit counts over whole words.
+ *
+ * An instance keeps scratch space for one dimension and is not thread safe.
+ */
+final class PackedMaskPenalty {
+
+    // Penalty weights from section 6.8.2.1
+    private static final int N1 = 3;
+    private static final int N2 = 3;
+    private static final int N3 = 40;
+    private static final int N4 = 10;
+
+    private final int dimension;
+    private final int words;
+    private final long[] tmp;
+    private final long[] acc;
+    private final long[] acc2;
+    private final long[] acc3;
+
+    PackedMaskPenalty(int dimension) {
+        this.dimension = dimension;
+        this.words = getWords(dimension);
+        this.tmp = new long[words];
+        this.acc = new long[words];
+        this.acc2 = new long[words];
+        this.acc3 = new long[words];
+    }
+
+    /**
+     * @return number of longs that hold one packed row or column of a matrix of this dimension
+     */
+    static int getWords(int dimension) {
+        return (dimension + 63) >> 6;
+    }
+
+    /**
+     * @param rows the packed rows; bits past the dimension must be 0
+     * @param cols the same matrix packed by columns
+     * @return the sum of the four penalty rules
+     */
+    int calculate(long[][] rows, long[][] cols) {
+        int rule1 = 0;
+        int rule3 = 0;
+        for (int i = 0; i < dimension; i++) {
+            rule1 += rule1(rows[i]) + rule1(cols[i]);
+            rule3 += rule3(rows[i]) + rule3(cols[i]);
+        }
+        int rule2 = 0;
+        int numDarkCells = 0;
+        for (int y = 0; y < dimension; y++) {
+            if (y + 1 < dimension) {
+                rule2 += rule2(rows[y], rows[y + 1]);
+            }
+            for (long word : rows[y]) {
+                numDarkCells += Long.bitCount(word);
+            }
+        }
+        int numTotalCells = dimension * dimension;
+        int fivePercentVariances = Math.abs(numDarkCells * 2 - numTotalCells) * 10 / numTotalCells;
+        return rule1 + N2 * rule2 + N3 * rule3 + N4 * fivePercentVariances;
+    }
+
+    // A run of L >= 5 equal modules costs N1 + (L - 5). Such a run is L - 1 consecutive "same as
+    // the next module" bits, which hold L - 4 windows of four, so the cost is the number of
+    // windows plus N1 - 1 per run of windows.
+    private int rule1(long[] line) {
+        long[] same = acc;
+        shiftRight(line, 1, tmp);
+        for (int w = 0; w < words; w++) {
+            same[w] = ~(line[w] ^ tmp[w]);
+        }
+        keepFirst(same, dimension - 1);
+        long[] windows = acc2;
+        System.arraycopy(same, 0, windows, 0, words);
+        for (int k = 1; k <= 3; k++) {
+            shiftRight(same, k, tmp);
+            for (int w = 0; w < words; w++) {
+                windows[w] &= tmp[w];
+            }
+        }
+        shiftLeft(windows, 1, tmp);
+        int penalty = 0;
+        for (int w = 0; w < words; w++) {
+            penalty += Long.bitCount(windows[w]) + (N1 - 1) * Long.bitCount(windows[w] & ~tmp[w]);
+        }
+        return penalty;
+    }
+
+    // 2x2 blocks: the module equals the one below it, its right neighbour equals the one below
+    // that, and the module equals its right neighbour.
+    private int rule2(long[] upper, long[] lower) {
+        long[] vertical = acc;
+        for (int w = 0; w < words; w++) {
+            vertical[w] = ~(upper[w] ^ lower[w]);
+        }
+        shiftRight(vertical, 1, tmp);
+        long[] horizontal = acc2;
+        shiftRight(upper, 1, horizontal);
+        for (int w = 0; w < words; w++) {
+            vertical[w] &= tmp[w] & ~(upper[w] ^ horizontal[w]);
+        }
+        keepFirst(vertical, dimension - 1);
+        int count = 0;
+        for (int w = 0; w < words; w++) {
+            count += Long.bitCount(vertical[w]);
+        }
+        return count;
+    }
+
+    // 1011101 at x..x+6 with four light modules (or the edge) right before or right after it
+    private int rule3(long[] line) {
+        long[] pattern = acc;
+        System.arraycopy(line, 0, pattern, 0, words);
+        for (int k = 1; k <= 6; k++) {
+            shiftRight(line, k, tmp);
+            boolean light = k == 1 || k == 5;
+            for (int w = 0; w < words; w++) {
+                pattern[w] &= light ? ~tmp[w] : tmp[w];
+            }
+        }
+        keepFirst(pattern, dimension - 6);
+
+        // Whether any of x-4..x-1, and any of x+7..x+10, is dark. Modules past either end are 0.
+        long[] darkBefore = acc2;
+        long[] darkAfter = acc3;
+        Arrays.fill(darkBefore, 0L);
+        Arrays.fill(darkAfter, 0L);
+        for (int k = 1; k <= 4; k++) {
+            shiftLeft(line, k, tmp);
+            for (int w = 0; w < words; w++) {
+                darkBefore[w] |= tmp[w];
+            }
+            shiftRight(line, 6 + k, tmp);
+            for (int w = 0; w < words; w++) {
+                darkAfter[w] |= tmp[w];
+            }
+        }
+        int count = 0;
+        for (int w = 0; w < words; w++) {
+            count += Long.bitCount(pattern[w] & ~(darkBefore[w] & darkAfter[w]));
+        }
+        return count;
+    }
+
+    // Clears all but the first "length" bits of "bits"; nothing is kept for length <= 0.
+    private void keepFirst(long[] bits, int length) {
+        for (int w = 0; w < words; w++) {
+            int from = w << 6;
+            if (length <= from) {
+                bits[w] = 0;
+            } else if (length < from + 64) {
+                bits[w] &= (1L << (length - from)) - 1;
+            }
+        }
+    }
+
+    // dst = src >> k over the whole line, 0 < k < 64
+    private void shiftRight(long[] src, int k, long[] dst) {
+        for (int w = 0; w < words; w++) {
+            long next = w + 1 < words ? src[w + 1] : 0L;
+            dst[w] = (src[w] >>> k) | (next << (64 - k));
+        }
+    }
+
+    // dst = src << k over the whole line, 0 < k < 64
+    private void shiftLeft(long[] src, int k, long[] dst) {
+        for (int w = words - 1; w >= 0; w--) {
+            long previous = w > 0 ? src[w - 1] : 0L;
+            dst[w] = (src[w] << k) | (previous >>> (64 - k));
+        }
+    }
+
+}
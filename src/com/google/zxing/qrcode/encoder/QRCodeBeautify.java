@@ -11,19 +11,22 @@ import com.google.zxing.qrcode.detector.Detector;
 import com.google.zxing.main.BufferedImageLuminanceSource;
 import org.opencv.core.*;
 import org.opencv.highgui.Highgui;
-import org.opencv.imgproc.Imgproc;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Created by dengshihong on 15/1/31.
+ *
+ * Instances keep no per-call state: everything a run produces is returned in a
+ * {@link BeautifyResult}, so a single engine can be shared between threads.
  */
-public class QRCodeBeautify{
+public final class QRCodeBeautify{
     // The original table is defined in the table 5 of JISX0510:2004 (p.19).
     private static final int[] ALPHANUMERIC_TABLE = {
             -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,  // 0x00-0x0f
@@ -35,20 +38,20 @@ public class QRCodeBeautify{
     };
 
     static final String DEFAULT_BYTE_MODE_ENCODING = "ISO-8859-1";
-    static float pEdge = 1.0f;
-    static float pSalient = 0.0f;
-
-    public ByteMatrix basicNotChange;
-    public ByteMatrix basicChange;
-    public BitMatrix mIdeal;
-    private int mHeadAndDataLength;
-    private int mPaddingLength;
-    private int mRSCodeLength;
-    private int mTotalLength;
-    private int[] mFinalDataToData;
-    private int[] mDataToFinalData;
+    private final ImportanceMap importanceMap;
 
+    /**
+     * Creates an engine that keeps the strongest edges of the embedded image visible.
+     */
     public QRCodeBeautify() {
+        this(new EdgeImportanceMap());
+    }
+
+    /**
+     * @param importanceMap decides which modules of the embedded image should stay visible
+     */
+    public QRCodeBeautify(ImportanceMap importanceMap) {
+        this.importanceMap = importanceMap;
     }
 
     // The mask penalty calculation is complicated.  See Table 21 of JISX0510:2004 (p.45) for details.
@@ -61,20 +64,26 @@ public class QRCodeBeautify{
     }
 
     /**
+     * @param logo the embedded image, already resized to the code's dimension times the module size
+     * @param idealImage the logo rendered with the function patterns of {@link #idealCode}
      * @param content text to encode
      * @param ecLevel error correction level to use
-     * @return {@link com.google.zxing.qrcode.encoder.QRCode} representing the encoded QR code
+     * @param moduleSize size of a module in pixels
+     * @return {@link BeautifyResult} holding the encoded QR code and its module flags
      * @throws com.google.zxing.WriterException if encoding can't succeed, because of for example invalid content
      *                         or configuration
      */
-    public QRCode encode(String embedImg, String content, ErrorCorrectionLevel ecLevel, int moduleSize) throws Exception {
-        return encode(embedImg, content, ecLevel, moduleSize, null);
+    public BeautifyResult encode(Mat logo, Mat idealImage, String content, ErrorCorrectionLevel ecLevel, int moduleSize)
+            throws Exception {
+        return encode(logo, idealImage, content, ecLevel, moduleSize, null);
     }
 
-    public QRCode idealCode(String embedImg,
-                           String content,
+    /**
+     * @return the function patterns of the code {@link #encode} would produce, with the modules that
+     * must not be covered by the embedded image flagged in {@link BeautifyResult#getBasicNotChange()}
+     */
+    public BeautifyResult idealCode(String content,
                            ErrorCorrectionLevel ecLevel,
-                           int moduleSize,
                            Map<EncodeHintType, ?> hints) throws WriterException {
         // Determine what character encoding has been specified by the caller, if any
         String encoding = hints == null ? null : (String) hints.get(EncodeHintType.CHARACTER_SET);
@@ -82,8 +91,13 @@ public class QRCodeBeautify{
             encoding = DEFAULT_BYTE_MODE_ENCODING;
         }
 
+        MinimalEncoder.Result segmented = encodeCompact(content, ecLevel, encoding, hints);
+        if (segmented != null) {
+            return idealCode(segmented.getMode(), segmented.getVersion(), ecLevel);
+        }
+
         // Pick an encoding mode appropriate for the content. Note that this will not attempt to use
-        // multiple modes / segments even if that were more efficient. Twould be nice.
+        // multiple modes / segments, see EncodeHintType.QR_COMPACT for that.
         Mode mode = chooseMode(content, encoding);
 
         // This will store the header information, like mode and
@@ -127,6 +141,11 @@ public class QRCodeBeautify{
         else
             version = chooseVersion(bitsNeeded, ecLevel);
 
+        return idealCode(mode, version, ecLevel);
+    }
+
+    private BeautifyResult idealCode(Mode mode, Version version, ErrorCorrectionLevel ecLevel)
+            throws WriterException {
         QRCode qrCode = new QRCode();
 
         qrCode.setECLevel(ecLevel);
@@ -136,36 +155,47 @@ public class QRCodeBeautify{
         //  Choose the mask pattern (Which one is ok)
         int dimension = version.getDimensionForVersion();
         ByteMatrix matrix = new ByteMatrix(dimension, dimension);
-        basicChange = new ByteMatrix(dimension, dimension);
-        MatrixUtil.clearMatrix(basicChange);
-        basicNotChange = new ByteMatrix(dimension, dimension);
-        MatrixUtil.clearMatrix(basicNotChange);
+        ByteMatrix basicChange = new ByteMatrix(dimension, dimension);
+        ByteMatrix basicNotChange = new ByteMatrix(dimension, dimension);
 
         int maskPattern = 0;
         qrCode.setMaskPattern(maskPattern);
 
-        // Build the matrix and set it to "qrCode".
-        MatrixUtil.clearMatrix(matrix);
-        MatrixUtil.embedBasicPatterns(version, matrix);
-        MatrixUtil.embedBasicPatterns(version, basicNotChange);
-        // Type information appear with any version.
-        MatrixUtil.embedTypeInfo(ecLevel, maskPattern, matrix);
-        MatrixUtil.embedTypeInfo(ecLevel, maskPattern, basicChange);
-        MatrixUtil.embedTypeInfo(ecLevel, maskPattern, basicNotChange);
-        // Version info appear if version >= 7.
-        MatrixUtil.maybeEmbedVersionInfo(version, matrix);
-        MatrixUtil.maybeEmbedVersionInfo(version, basicChange);
+        // Build the function patterns, with no data yet, and set them to "qrCode".
+        MatrixTemplate template = MatrixTemplate.forVersion(version);
+        template.buildFunctionPatterns(ecLevel, maskPattern, matrix);
+        // The image may cover the type and version information, but not the other patterns.
+        template.buildFormatInformation(ecLevel, maskPattern, basicChange);
+        template.copyBasicPatterns(basicNotChange);
         MatrixUtil.embedTypeInfo(ecLevel, maskPattern, basicNotChange);
         qrCode.setMatrix(matrix);
 
-        return qrCode;
+        return new BeautifyResult(qrCode, basicNotChange, basicChange, null);
     }
 
-    public QRCode encode(String embedImg,
+    public BeautifyResult encode(Mat logo,
+                                Mat idealImage,
                                 String content,
                                 ErrorCorrectionLevel ecLevel,
                                 int moduleSize,
                                 Map<EncodeHintType, ?> hints) throws Exception {
+        BitMatrix ideal = getIdealResult(idealImage);
+        float[] moduleImportance = getImportance(logo, ideal.getWidth(), moduleSize);
+        return encode(ideal, moduleImportance, content, ecLevel, hints);
+    }
+
+    /**
+     * Encodes from the results of the image processing stages, for callers that keep them around
+     * between codes (see {@link LogoCache}). Neither argument is modified.
+     *
+     * @param ideal the embedded image binarized at module resolution, see {@link #getIdealResult}
+     * @param moduleImportance importance of each module, see {@link #getImportance}
+     */
+    public BeautifyResult encode(BitMatrix ideal,
+                                float[] moduleImportance,
+                                String content,
+                                ErrorCorrectionLevel ecLevel,
+                                Map<EncodeHintType, ?> hints) throws WriterException {
 
         // Determine what character encoding has been specified by the caller, if any
         String encoding = hints == null ? null : (String) hints.get(EncodeHintType.CHARACTER_SET);
@@ -173,8 +203,14 @@ public class QRCodeBeautify{
             encoding = DEFAULT_BYTE_MODE_ENCODING;
         }
 
+        MinimalEncoder.Result segmented = encodeCompact(content, ecLevel, encoding, hints);
+        if (segmented != null) {
+            return encode(ideal, moduleImportance, segmented.getMode(), segmented.getVersion(),
+                    segmented.getBits(), ecLevel, hints);
+        }
+
         // Pick an encoding mode appropriate for the content. Note that this will not attempt to use
-        // multiple modes / segments even if that were more efficient. Twould be nice.
+        // multiple modes / segments, see EncodeHintType.QR_COMPACT for that.
         Mode mode = chooseMode(content, encoding);
 
         // This will store the header information, like mode and
@@ -229,6 +265,20 @@ public class QRCodeBeautify{
         // Put data together into the overall payload
         headerAndDataBits.appendBitArray(dataBits);
 
+        return encode(ideal, moduleImportance, mode, version, headerAndDataBits, ecLevel, hints);
+    }
+
+    /**
+     * Continues {@link #encode(BitMatrix, float[], String, ErrorCorrectionLevel, Map)} once the
+     * header and data bits of all segments are known.
+     */
+    private BeautifyResult encode(final BitMatrix ideal,
+                                  final float[] moduleImportance,
+                                  Mode mode,
+                                  Version version,
+                                  final BitArray headerAndDataBits,
+                                  final ErrorCorrectionLevel ecLevel,
+                                  Map<EncodeHintType, ?> hints) throws WriterException {
         Version.ECBlocks ecBlocks = version.getECBlocksForLevel(ecLevel);
         int numDataBytes = version.getTotalCodewords() - ecBlocks.getTotalECCodewords();
 
@@ -236,99 +286,152 @@ public class QRCodeBeautify{
         terminateBits(numDataBytes, headerAndDataBits);
 
         // length for bit
-        mTotalLength = version.getTotalCodewords() * 8;
-        mHeadAndDataLength = headerAndDataBits.getSize();
-        mPaddingLength = numDataBytes * 8  - mHeadAndDataLength;
-        mRSCodeLength = ecBlocks.getTotalECCodewords() * 8;
+        int totalLength = version.getTotalCodewords() * 8;
+        int headAndDataLength = headerAndDataBits.getSize();
+
+        int dimension = version.getDimensionForVersion();
+        if (ideal.getWidth() != dimension || moduleImportance.length != dimension * dimension) {
+            throw new WriterException("Image data does not fit version " + version);
+        }
+
+        int[] finalDataToData = new int[totalLength];
+        final int[] dataToFinalData = new int[totalLength];
+        // get finalBit to Data mapping
+        buildFinalToDataMapping(version.getTotalCodewords(), numDataBytes, ecBlocks.getNumBlocks(), finalDataToData);
+        // get the data to finalBit mapping
+        getRevMapFromMap(finalDataToData, dataToFinalData);
+
+        // get the finalBit to M(x, y) mapping, which only depends on the function patterns. It covers
+        // every module outside them, the remainder bits at the end included.
+        MatrixTemplate template = MatrixTemplate.forVersion(version);
+        final int[] x = new int[template.getNumDataModules()], y = new int[template.getNumDataModules()];
+        template.getDataBitsIndex(x.length, x, y);
+
+        String debugDir = hints == null ? null : (String) hints.get(EncodeHintType.BEAUTIFY_DEBUG_DIR);
+        if (debugDir != null) {
+            dumpImportance(moduleImportance, dimension, new File(debugDir, "logo_importance.bmp"));
+        }
+
+        // In before interleave order
+        final float[] byteImportance = new float[version.getTotalCodewords()];
+        for(int i = 0; i < totalLength; i++){
+            if(i < headAndDataLength) {
+                byteImportance[i / 8] += Integer.MAX_VALUE * 1.0f;
+            }
+            else {
+                int moduleX = x[dataToFinalData[i]];
+                int moduleY = y[dataToFinalData[i]];
+                byteImportance[i / 8] += moduleImportance[moduleY * dimension + moduleX];
+            }
+        }
+
+        Boolean maskSearch = hints == null ? null : (Boolean) hints.get(EncodeHintType.BEAUTIFY_MASK_SEARCH);
+        if (maskSearch == null || !maskSearch) {
+            return encodeWithMask(0, version, ecLevel, mode, headerAndDataBits, ideal, byteImportance,
+                    dataToFinalData, x, y);
+        }
+
+        // Every mask turns different modules of the image into the free codewords, so try them all
+        // and keep the one that ends up closest to the image.
+        final Version finalVersion = version;
+        final Mode finalMode = mode;
+        List<ForkJoinTask<MaskCandidate>> tasks = new ArrayList<>(QRCode.NUM_MASK_PATTERNS);
+        for (int maskPattern = 0; maskPattern < QRCode.NUM_MASK_PATTERNS; maskPattern++) {
+            final int mask = maskPattern;
+            tasks.add(MaskSearchPool.POOL.submit(new Callable<MaskCandidate>() {
+                @Override
+                public MaskCandidate call() throws WriterException {
+                    BeautifyResult result = encodeWithMask(mask, finalVersion, ecLevel, finalMode,
+                            headerAndDataBits, ideal, byteImportance, dataToFinalData, x, y);
+                    return new MaskCandidate(result,
+                            getDeviation(result.getCode().getMatrix(), ideal, moduleImportance, x, y));
+                }
+            }));
+        }
+        MaskCandidate best = null;
+        for (ForkJoinTask<MaskCandidate> task : tasks) {
+            MaskCandidate candidate;
+            try {
+                candidate = task.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new WriterException(ie);
+            } catch (ExecutionException ee) {
+                throw new WriterException(ee.getCause());
+            }
+            if (best == null || candidate.isBetterThan(best)) {
+                best = candidate;
+            }
+        }
+        return best.result;
+    }
+
+    /**
+     * @return the segments and version from {@link MinimalEncoder} if the hints ask for
+     * {@link EncodeHintType#QR_COMPACT}, null otherwise
+     */
+    private static MinimalEncoder.Result encodeCompact(String content,
+                                                       ErrorCorrectionLevel ecLevel,
+                                                       String encoding,
+                                                       Map<EncodeHintType, ?> hints) throws WriterException {
+        Boolean compact = hints == null ? null : (Boolean) hints.get(EncodeHintType.QR_COMPACT);
+        if (compact == null || !compact) {
+            return null;
+        }
+        Integer num = (Integer) hints.get(EncodeHintType.QR_VERSION);
+        return MinimalEncoder.encode(content, ecLevel, encoding, num == null ? null : Version.getVersionForNumber(num));
+    }
+
+    /**
+     * Runs the rest of the pipeline for one mask pattern: fixes the important codewords to the
+     * image, solves the free ones with Reed-Solomon and places everything into a matrix.
+     */
+    private BeautifyResult encodeWithMask(int maskPattern,
+                                          Version version,
+                                          ErrorCorrectionLevel ecLevel,
+                                          Mode mode,
+                                          BitArray headerAndDataBits,
+                                          BitMatrix ideal,
+                                          float[] byteImportance,
+                                          int[] dataToFinalData,
+                                          int[] x,
+                                          int[] y) throws WriterException {
+        Version.ECBlocks ecBlocks = version.getECBlocksForLevel(ecLevel);
+        int numDataBytes = version.getTotalCodewords() - ecBlocks.getTotalECCodewords();
+        int totalLength = version.getTotalCodewords() * 8;
+        int headAndDataLength = headerAndDataBits.getSize();
 
-        //
         QRCode qrCode = new QRCode();
 
         qrCode.setECLevel(ecLevel);
         qrCode.setMode(mode);
         qrCode.setVersion(version);
-
-        //  Choose the mask pattern and set to "qrCode".
-        int dimension = version.getDimensionForVersion();
-        ByteMatrix matrix = new ByteMatrix(dimension, dimension);
-        basicChange = new ByteMatrix(dimension, dimension);
-        MatrixUtil.clearMatrix(basicChange);
-        basicNotChange = new ByteMatrix(dimension, dimension);
-        MatrixUtil.clearMatrix(basicNotChange);
-
-        // should choose the MaskPattern according to the idea result
-        int maskPattern = 0;
         qrCode.setMaskPattern(maskPattern);
 
-        // Build the matrix and set it to "qrCode".
-        MatrixUtil.clearMatrix(matrix);
-        MatrixUtil.embedBasicPatterns(version, matrix);
-        MatrixUtil.embedBasicPatterns(version, basicNotChange);
-        // Type information appear with any version.
-        MatrixUtil.embedTypeInfo(ecLevel, maskPattern, matrix);
-        MatrixUtil.embedTypeInfo(ecLevel, maskPattern, basicChange);
-        //MatrixUtil.embedTypeInfo(ecLevel, maskPattern, basicNotChange);
-        // Version info appear if version >= 7.
-        MatrixUtil.maybeEmbedVersionInfo(version, matrix);
-        MatrixUtil.maybeEmbedVersionInfo(version, basicChange);
-        //MatrixUtil.maybeEmbedVersionInfo(version, basicNotChange);
-
-        mFinalDataToData = new int[version.getTotalCodewords() * 8];
-        mDataToFinalData = new int[version.getTotalCodewords() * 8];
-        // get finalBit to Data mapping
-        buildFinalToDataMapping(version.getTotalCodewords(), numDataBytes, ecBlocks.getNumBlocks());
-        // get the data to finalBit mapping
-        getRevMapFromMap(mFinalDataToData, mDataToFinalData);
-        // get the ideal
-        mIdeal = getIdealResult();
-
-        // get the finalBit to M(x, y) mapping
-        int[] x = new int[mTotalLength], y = new int[mTotalLength];
-        MatrixUtil.buildDataBitsIndex(mTotalLength, matrix, x, y);
+        int dimension = version.getDimensionForVersion();
+        MatrixTemplate template = MatrixTemplate.forVersion(version);
+        // The type and version information may be covered by the image, the other patterns not.
+        ByteMatrix basicChange = new ByteMatrix(dimension, dimension);
+        template.buildFormatInformation(ecLevel, maskPattern, basicChange);
+        ByteMatrix basicNotChange = new ByteMatrix(dimension, dimension);
+        template.copyBasicPatterns(basicNotChange);
 
-        // In before interleave order
-        BitOfCode[] allBits = new BitOfCode[mTotalLength];
-        BitOfCode[] allByte = new BitOfCode[version.getTotalCodewords()];
         BitArray idealBits = new BitArray();
-        Mat edge = getEdge();
-        Mat salient = getSalient();
-        assert edge.width() == matrix.getWidth() * moduleSize && edge.height() == matrix.getHeight() * moduleSize;
-        for(int i = 0; i < mTotalLength; i++){
-            allBits[i] = new BitOfCode();
-            allBits[i].index = i;
-            allBits[i].mImportanceValue = 0;
-            if(i % 8 == 0){
-                allByte[i / 8] = new BitOfCode();
-                allByte[i / 8].index = i / 8;
-                allByte[i / 8].mImportanceValue = 0;
-            }
-            if(i < mHeadAndDataLength) {
-                allBits[i].mImportanceValue = Integer.MAX_VALUE * 1.0f;
+        for(int i = 0; i < totalLength; i++){
+            if(i < headAndDataLength) {
                 idealBits.appendBit(headerAndDataBits.get(i));
             }
             else {
-                for (int j = 0; j < moduleSize; j++) {
-                    for (int k = 0; k < moduleSize; k++) {
-                        int IndexI = x[mDataToFinalData[i]] * moduleSize + j, IndexJ = y[mDataToFinalData[i]] * moduleSize + k;
-                        allBits[i].mImportanceValue += (pEdge * edge.get(IndexI, IndexJ)[0]) / 255;
-                    }
-                }
-                boolean tmp = mIdeal.get(x[mDataToFinalData[i]], y[mDataToFinalData[i]]);
-                if(MaskUtil.getDataMaskBit(maskPattern, x[mDataToFinalData[i]], y[mDataToFinalData[i]]))
+                int moduleX = x[dataToFinalData[i]];
+                int moduleY = y[dataToFinalData[i]];
+                boolean tmp = ideal.get(moduleX, moduleY);
+                if(MaskUtil.getDataMaskBit(maskPattern, moduleX, moduleY))
                     tmp = !tmp;
                 idealBits.appendBit(tmp);
             }
-            allByte[i / 8].mImportanceValue += allBits[i].mImportanceValue;
         }
 
-//        Arrays.sort(allByte, new Comparator<BitOfCode>() {
-//            @Override
-//            public int compare(BitOfCode o1, BitOfCode o2) {
-//                return (int)(o2.mImportanceValue - o1.mImportanceValue);
-//            }
-//        });
-
-        assert idealBits.getSize() == mTotalLength;
+        assert idealBits.getSize() == totalLength;
 
         //divide idealBits into blocks
         int numRSBlocks = ecBlocks.getNumBlocks();
@@ -355,7 +458,7 @@ public class QRCodeBeautify{
             idealBits.toBytes(8 * dataBytesOffset, dataBytes, 0, s1);
             idealBits.toBytes(8 * ecByteOffset, dataBytes, s1, s2);
             // contains s1 true and s2 false
-            boolean[] flag = getImportanceFlag_New(dataBytesOffset, s1, ecByteOffset, s2, allByte);
+            boolean[] flag = getImportanceFlag_New(dataBytesOffset, s1, ecByteOffset, s2, byteImportance);
             int[] dataBytesInt = new int[dataBytes.length];
             for(int z = 0; z < dataBytes.length; z++) {
                 dataBytesInt[z] = dataBytes[z] & 0xFF;
@@ -363,7 +466,6 @@ public class QRCodeBeautify{
             new ReedSolomonEncoder(GenericGF.QR_CODE_FIELD_256).encodeNoneSym(dataBytesInt, flag, s1);
             for(int z = 0; z < dataBytes.length; z++)
                 dataBytes[z] = (byte)dataBytesInt[z];
-            new ReedSolomonEncoder(GenericGF.QR_CODE_FIELD_256).encode(dataBytesInt, s2);
             blocks.add(new BlockPair(Arrays.copyOfRange(dataBytes, 0, s1),
                     Arrays.copyOfRange(dataBytes, s1, s1 + s2)));
 
@@ -401,11 +503,50 @@ public class QRCodeBeautify{
                     result.getSizeInBytes() + " differ.");
         }
 
-        // Data should be embedded at end.
-        MatrixUtil.embedDataBits(result, maskPattern, matrix);
+        // Build the matrix and set it to "qrCode".
+        ByteMatrix matrix = new ByteMatrix(dimension, dimension);
+        template.buildMatrix(result, ecLevel, maskPattern, matrix);
         qrCode.setMatrix(matrix);
 
-        return qrCode;
+        return new BeautifyResult(qrCode, basicNotChange, basicChange, ideal);
+    }
+
+    /**
+     * @return how much of the image the modules of {@code matrix} outside the function patterns
+     * lose, weighing each one that differs from {@code ideal} by its importance. Modules fixed to
+     * the image add nothing, so this is what the data, padding and remainder modules cost.
+     */
+    private static float getDeviation(ByteMatrix matrix, BitMatrix ideal, float[] moduleImportance,
+                                      int[] x, int[] y) {
+        int dimension = matrix.getWidth();
+        float deviation = 0;
+        for (int i = 0; i < x.length; i++) {
+            int moduleX = x[i];
+            int moduleY = y[i];
+            if ((matrix.get(moduleX, moduleY) == 1) != ideal.get(moduleX, moduleY)) {
+                deviation += moduleImportance[moduleY * dimension + moduleX];
+            }
+        }
+        return deviation;
+    }
+
+    private static final class MaskCandidate {
+        private final BeautifyResult result;
+        private final float deviation;
+
+        MaskCandidate(BeautifyResult result, float deviation) {
+            this.result = result;
+            this.deviation = deviation;
+        }
+
+        boolean isBetterThan(MaskCandidate other) {
+            return deviation < other.deviation;
+        }
+    }
+
+    // Created on first use, so engines that never search masks start no threads
+    private static final class MaskSearchPool {
+        static final ForkJoinPool POOL = new ForkJoinPool();
     }
 
     /**
@@ -493,22 +634,11 @@ public class QRCodeBeautify{
     }
 
     private Version chooseVersion(int numInputBits, ErrorCorrectionLevel ecLevel) throws WriterException {
-        // In the following comments, we use numbers of Version 7-H.
-        for (int versionNum = 1; versionNum <= 40; versionNum++) {
-            Version version = Version.getVersionForNumber(versionNum);
-            // numBytes = 196
-            int numBytes = version.getTotalCodewords();
-            // getNumECBytes = 130
-            Version.ECBlocks ecBlocks = version.getECBlocksForLevel(ecLevel);
-            int numEcBytes = ecBlocks.getTotalECCodewords();
-            // getNumDataBytes = 196 - 130 = 66
-            int numDataBytes = numBytes - numEcBytes;
-            int totalInputBytes = (numInputBits + 7) / 8;
-            if (numDataBytes >= totalInputBytes) {
-                return version;
-            }
+        Version version = QRCodeCapacity.getMinimumVersion(numInputBits, ecLevel);
+        if (version == null) {
+            throw new WriterException("Data too big");
         }
-        throw new WriterException("Data too big");
+        return version;
     }
 
     /**
@@ -663,17 +793,9 @@ public class QRCodeBeautify{
     }
 
     byte[] generateECBytes(byte[] dataBytes, int numEcBytesInBlock) {
-        int numDataBytes = dataBytes.length;
-        int[] toEncode = new int[numDataBytes + numEcBytesInBlock];
-        for (int i = 0; i < numDataBytes; i++) {
-            toEncode[i] = dataBytes[i] & 0xFF;
-        }
-        new ReedSolomonEncoder(GenericGF.QR_CODE_FIELD_256).encode(toEncode, numEcBytesInBlock);
-
         byte[] ecBytes = new byte[numEcBytesInBlock];
-        for (int i = 0; i < numEcBytesInBlock; i++) {
-            ecBytes[i] = (byte) toEncode[numDataBytes + i];
-        }
+        new ReedSolomonEncoder(GenericGF.QR_CODE_FIELD_256).encode(
+                dataBytes, 0, dataBytes.length, ecBytes, 0, numEcBytesInBlock);
         return ecBytes;
     }
 
@@ -814,40 +936,31 @@ public class QRCodeBeautify{
         bits.appendBits(eci.getValue(), 8);
     }
 
-    private Mat getEdge(){
-        Mat src = Highgui.imread("result/logo_change_size.bmp");
-        Mat gray = new Mat();
-        Mat gray_s = new Mat();
-        Mat edge_x = new Mat();
-        Mat edge_y = new Mat();
-        Imgproc.cvtColor(src, gray, Imgproc.COLOR_BGR2GRAY);
-        Imgproc.medianBlur(gray, gray_s, 3);
-        Imgproc.Sobel(gray_s, edge_x, CvType.CV_16S, 0, 1, 3, 1, 0);
-        Imgproc.Sobel(gray_s, edge_y, CvType.CV_16S, 1, 0, 3, 1, 0);
-        for(int i = 0; i < edge_x.height(); i++){
-            for(int j = 0; j < edge_x.width(); j++){
-                if(Math.abs(edge_x.get(i, j)[0]) + Math.abs(edge_y.get(i, j)[0]) > 255){
-                    edge_x.row(i).col(j).setTo(new Scalar(255));
-                }else{
-                    edge_x.row(i).col(j).setTo(new Scalar(Math.abs(edge_x.get(i, j)[0]) + Math.abs(edge_y.get(i, j)[0])));
-                }
+    /**
+     * Writes the module importance as a gray image, scaled so that the most important module is white.
+     */
+    private static void dumpImportance(float[] importance, int dimension, File file) {
+        float max = 0.0f;
+        for (float value : importance) {
+            max = Math.max(max, value);
+        }
+        byte[] pixels = new byte[importance.length];
+        if (max > 0.0f) {
+            for (int i = 0; i < importance.length; i++) {
+                pixels[i] = (byte) Math.round(importance[i] * 255 / max);
             }
         }
-        Highgui.imwrite("result/logo_gray.bmp", gray);
-        Highgui.imwrite("result/logo_gray_s.bmp", gray_s);
-        Highgui.imwrite("result/logo_edge.bmp", edge_x);
-        return edge_x;
-    }
-
-    private Mat getSalient(){
-        return null;
+        Mat image = new Mat(dimension, dimension, CvType.CV_8UC1);
+        image.put(0, 0, pixels);
+        Highgui.imwrite(file.getPath(), image);
     }
 
     void buildFinalToDataMapping(int numTotalBytes,
                                    int numDataBytes,
-                                   int numRSBlocks) throws WriterException {
+                                   int numRSBlocks,
+                                   int[] finalDataToData) throws WriterException {
         // "bits" must have "getNumDataBytes" bytes of data.
-        if (mFinalDataToData.length != numTotalBytes * 8) {
+        if (finalDataToData.length != numTotalBytes * 8) {
             throw new WriterException("Mapping buffer size and total bytes does not match");
         }
 
@@ -891,7 +1004,7 @@ public class QRCodeBeautify{
             for (int j = 0; j < numRSBlocks; ++j) {
                 if (i < blockDataLength[j]) {
                     for(int k = 0; k < 8; k++){
-                        mFinalDataToData[count] = (dataOffset[j] + i) * 8 + k;
+                        finalDataToData[count] = (dataOffset[j] + i) * 8 + k;
                         count++;
                     }
                 }
@@ -903,29 +1016,69 @@ public class QRCodeBeautify{
             for (int j = 0; j < numRSBlocks; ++j) {
                 if (i < blockRSLength[j]) {
                     for(int k = 0; k < 8; k++){
-                        mFinalDataToData[count] = (numDataBytes + rsOffset[j] + i) * 8 + k;
+                        finalDataToData[count] = (numDataBytes + rsOffset[j] + i) * 8 + k;
                         count++;
                     }
                 }
             }
         }
-        if (mTotalLength != count) {  // Should be same.
+        if (finalDataToData.length != count) {  // Should be same.
             throw new WriterException("Interleaving error: " + numTotalBytes + " and " +
                     count + " differ.");
         }
     }
 
-    BitMatrix getIdealResult() throws IOException, NotFoundException, FormatException{
-        String file = "result/logo_ideal.bmp";
-        BufferedImage image;
+    /**
+     * @param logo embedded image, resized to {@code dimension * moduleSize} pixels square
+     * @return importance of each module as scored by this engine's {@link ImportanceMap}
+     */
+    public float[] getImportance(Mat logo, int dimension, int moduleSize) {
+        return importanceMap.compute(logo, dimension, moduleSize);
+    }
+
+    /**
+     * @return the map {@link #getImportance} scores modules with
+     */
+    public ImportanceMap getImportanceMap() {
+        return importanceMap;
+    }
 
-        image = ImageIO.read(new File(file));
-        LuminanceSource source = new BufferedImageLuminanceSource(image);
+    /**
+     * @param idealImage the embedded image rendered with the function patterns of {@link #idealCode}
+     * @return the image binarized and sampled at module resolution
+     */
+    public BitMatrix getIdealResult(Mat idealImage) throws NotFoundException, FormatException{
+        LuminanceSource source = toLuminanceSource(idealImage);
         BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
         DetectorResult detectorResult = new Detector(bitmap.getBlackMatrix()).detect();
         return detectorResult.getBits();
     }
 
+    /**
+     * Wraps an 8 bit gray or BGR(A) image as a {@link LuminanceSource} without going through an
+     * encoded file. Color pixels are weighted the same way {@link BufferedImageLuminanceSource} does.
+     */
+    static LuminanceSource toLuminanceSource(Mat image) {
+        int width = image.cols();
+        int height = image.rows();
+        int channels = image.channels();
+        byte[] pixels = new byte[width * height * channels];
+        image.get(0, 0, pixels);
+        byte[] luminances;
+        if (channels == 1) {
+            luminances = pixels;
+        } else {
+            luminances = new byte[width * height];
+            for (int i = 0, offset = 0; i < luminances.length; i++, offset += channels) {
+                int b = pixels[offset] & 0xFF;
+                int g = pixels[offset + 1] & 0xFF;
+                int r = pixels[offset + 2] & 0xFF;
+                luminances[i] = (byte) ((306 * r + 601 * g + 117 * b + 0x200) >> 10);
+            }
+        }
+        return new PlanarYUVLuminanceSource(luminances, width, height, 0, 0, width, height, false);
+    }
+
     private void getRevMapFromMap (int[] map, int[] rev) throws WriterException{
         //ensure the map is a permutation
         class Permute{
@@ -954,52 +1107,25 @@ public class QRCodeBeautify{
         }
     }
 
-    private boolean[] getImportanceFlag(int dataOffset, int dataLength, int ecOffset, int ecLength, BitOfCode[] iv){
-        boolean[] result = new boolean[dataLength + ecLength];
-        for(int i = 0; i < dataLength; i++)
-            result[i] = true;
-        for(int i = 0; i < ecLength; i++)
-            result[dataLength + i] = false;
-        return result;
-    }
-
-    private boolean[] getImportanceFlag_New(int dataOffset, int dataLength, int ecOffset, int ecLength, BitOfCode[] iv){
-        boolean[] result = new boolean[dataLength + ecLength];
-        BitOfCode[] current = new BitOfCode[dataLength + ecLength];
-        int allDataByte = (mHeadAndDataLength + mPaddingLength) / 8;
-        for(int i = 0; i < dataLength; i++) {
-            current[i] = new BitOfCode();
-            current[i].index = i;
-            current[i].mImportanceValue = iv[dataOffset + i].mImportanceValue;
-        }
-        for(int i = 0; i < ecLength; i++) {
-            current[dataLength + i] = new BitOfCode();
-            current[dataLength + i].index = dataLength + i;
-            current[dataLength + i].mImportanceValue = iv[ecOffset + i].mImportanceValue;
-        }
-        Arrays.sort(current, new Comparator<BitOfCode>() {
-            @Override
-            public int compare(BitOfCode o1, BitOfCode o2) {
-                return (int)(o2.mImportanceValue - o1.mImportanceValue);
-            }
-        });
-        for(int i = 0; i < dataLength; i++) {
-            result[current[i].index] = true;
-        }
-        for(int i = 0; i < ecLength; i++) {
-            result[current[dataLength + i].index] = false;
+    /**
+     * Keeps the dataLength most important codewords of a block (true) and frees the others (false)
+     * so that they can be solved for. Ties go to the codeword that comes first.
+     */
+    private boolean[] getImportanceFlag_New(int dataOffset, int dataLength, int ecOffset, int ecLength, float[] iv){
+        int length = dataLength + ecLength;
+        boolean[] result = new boolean[length];
+        // Importance in the high half, inverted index in the low half: sorting the keys ascending
+        // puts the codewords to keep at the end. Importance values are never negative, so their raw
+        // float bits sort like the values themselves.
+        long[] keys = new long[length];
+        for(int i = 0; i < length; i++) {
+            float value = i < dataLength ? iv[dataOffset + i] : iv[ecOffset + i - dataLength];
+            keys[i] = ((long) Float.floatToIntBits(value) << 32) | (~i & 0xFFFFFFFFL);
         }
-        int count = 0;
-        for(int i = 0; i < dataLength + ecLength; i++){
-            if(result[i])
-                count++;
+        Arrays.sort(keys);
+        for(int i = ecLength; i < length; i++) {
+            result[~(int) keys[i]] = true;
         }
         return result;
     }
-
-
-    private class BitOfCode{
-        int index;
-        float mImportanceValue;
-    }
 }
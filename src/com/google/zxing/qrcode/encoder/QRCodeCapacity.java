@@ -0,0 +1,127 @@
+package com.google.zxing.qrcode.encoder;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Mode;
+import com.google.zxing.qrcode.decoder.Version;
+
+/**
+ * Answers how much fits in a QR code without encoding anything, from tables built once for every
+ * version and error correction level. Useful to reject or route content that is too big before
+ * doing any encoding work.
+ *
+ * Character capacities are for content written as a single segment in one mode, without an ECI
+ * header; with {@link com.google.zxing.EncodeHintType#QR_COMPACT} content may fit in less.
+ */
+public final class QRCodeCapacity {
+
+    private static final Mode[] MODES = {Mode.NUMERIC, Mode.ALPHANUMERIC, Mode.BYTE, Mode.KANJI};
+
+    // DATA_BYTES[ecLevel][version] is the number of data codewords, with index 0 unused
+    private static final int[][] DATA_BYTES = new int[4][41];
+    // MAX_CHARACTERS[ecLevel][mode][version] is the most characters a single segment can hold
+    private static final int[][][] MAX_CHARACTERS = new int[4][MODES.length][41];
+
+    static {
+        for (ErrorCorrectionLevel ecLevel : ErrorCorrectionLevel.values()) {
+            int level = ecLevel.ordinal();
+            for (int versionNum = 1; versionNum <= 40; versionNum++) {
+                Version version = Version.getVersionForNumber(versionNum);
+                int numDataBytes = version.getTotalCodewords()
+                        - version.getECBlocksForLevel(ecLevel).getTotalECCodewords();
+                DATA_BYTES[level][versionNum] = numDataBytes;
+                for (int m = 0; m < MODES.length; m++) {
+                    int countBits = MODES[m].getCharacterCountBits(version);
+                    int dataBits = numDataBytes * 8 - 4 - countBits;
+                    MAX_CHARACTERS[level][m][versionNum] =
+                            Math.min(getMaxCharacters(MODES[m], dataBits), (1 << countBits) - 1);
+                }
+            }
+        }
+    }
+
+    private QRCodeCapacity() {
+    }
+
+    /**
+     * @return the number of data codewords of "version" at "ecLevel"
+     */
+    public static int getNumDataBytes(Version version, ErrorCorrectionLevel ecLevel) {
+        return DATA_BYTES[ecLevel.ordinal()][version.getVersionNumber()];
+    }
+
+    /**
+     * @return the most characters of "mode" that fit in "version" at "ecLevel". For
+     * {@link Mode#BYTE} this counts bytes in the chosen character encoding.
+     */
+    public static int getMaxCharacters(Version version, ErrorCorrectionLevel ecLevel, Mode mode) {
+        return MAX_CHARACTERS[ecLevel.ordinal()][modeIndex(mode)][version.getVersionNumber()];
+    }
+
+    /**
+     * @return the smallest version that holds "numCharacters" characters of "mode" at "ecLevel",
+     * or null if none does
+     */
+    public static Version getMinimumVersion(int numCharacters, Mode mode, ErrorCorrectionLevel ecLevel) {
+        return search(MAX_CHARACTERS[ecLevel.ordinal()][modeIndex(mode)], numCharacters);
+    }
+
+    /**
+     * @return the smallest version with room for "numInputBits" bits of header and data at
+     * "ecLevel", or null if none has
+     */
+    public static Version getMinimumVersion(int numInputBits, ErrorCorrectionLevel ecLevel) {
+        return search(DATA_BYTES[ecLevel.ordinal()], (numInputBits + 7) / 8);
+    }
+
+    /**
+     * Binary search for the first version whose entry in "capacities" is at least "needed".
+     * Capacities grow with the version for every level and mode.
+     */
+    private static Version search(int[] capacities, int needed) {
+        if (capacities[40] < needed) {
+            return null;
+        }
+        int low = 1;
+        int high = 40;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (capacities[mid] >= needed) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return Version.getVersionForNumber(low);
+    }
+
+    private static int modeIndex(Mode mode) {
+        for (int m = 0; m < MODES.length; m++) {
+            if (MODES[m] == mode) {
+                return m;
+            }
+        }
+        throw new IllegalArgumentException("No capacity for mode " + mode);
+    }
+
+    /**
+     * @return the most characters of "mode" whose data takes at most "dataBits" bits
+     */
+    private static int getMaxCharacters(Mode mode, int dataBits) {
+        switch (mode) {
+            case NUMERIC:
+                // 10 bits per group of three digits, 7 for a final pair and 4 for a final digit
+                int remainder = dataBits % 10;
+                return 3 * (dataBits / 10) + (remainder >= 7 ? 2 : remainder >= 4 ? 1 : 0);
+            case ALPHANUMERIC:
+                // 11 bits per pair and 6 for a final character
+                return 2 * (dataBits / 11) + (dataBits % 11 >= 6 ? 1 : 0);
+            case BYTE:
+                return dataBits / 8;
+            case KANJI:
+                return dataBits / 13;
+            default:
+                throw new IllegalArgumentException("No capacity for mode " + mode);
+        }
+    }
+
+}
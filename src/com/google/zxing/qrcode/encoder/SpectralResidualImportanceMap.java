@@ -0,0 +1,82 @@
+package com.google.zxing.qrcode.encoder;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scores modules by visual saliency, using the spectral residual approach of Hou and Zhang
+ * ("Saliency Detection: A Spectral Residual Approach", CVPR 2007). The log amplitude spectrum of
+ * a thumbnail minus its local average is what stands out in the image; transforming it back with
+ * the original phase gives the saliency map. The map is normalized to [0, 1] per pixel.
+ */
+public final class SpectralResidualImportanceMap implements ImportanceMap {
+
+    // The paper works on 64x64 thumbnails; the residual does not get better with more pixels.
+    private static final int THUMBNAIL_SIZE = 64;
+
+    @Override
+    public float[] compute(Mat logo, int dimension, int moduleSize) {
+        EdgeImportanceMap.checkSize(logo, dimension * moduleSize);
+        Mat thumbnail = new Mat();
+        Imgproc.resize(EdgeImportanceMap.toGray(logo), thumbnail, new Size(THUMBNAIL_SIZE, THUMBNAIL_SIZE),
+                0, 0, Imgproc.INTER_AREA);
+        Mat real = new Mat();
+        thumbnail.convertTo(real, CvType.CV_32F);
+
+        List<Mat> planes = new ArrayList<>(2);
+        planes.add(real);
+        planes.add(Mat.zeros(THUMBNAIL_SIZE, THUMBNAIL_SIZE, CvType.CV_32F));
+        Mat spectrum = new Mat();
+        Core.merge(planes, spectrum);
+        Core.dft(spectrum, spectrum);
+        planes.clear();
+        Core.split(spectrum, planes);
+
+        Mat amplitude = new Mat();
+        Mat phase = new Mat();
+        Core.cartToPolar(planes.get(0), planes.get(1), amplitude, phase);
+        // log(1 + A) rather than log(A) so that empty frequencies stay finite.
+        Core.add(amplitude, new Scalar(1), amplitude);
+        Core.log(amplitude, amplitude);
+        Mat average = new Mat();
+        Imgproc.blur(amplitude, average, new Size(3, 3));
+        Core.subtract(amplitude, average, amplitude);
+        Core.exp(amplitude, amplitude);
+
+        Mat re = new Mat();
+        Mat im = new Mat();
+        Core.polarToCart(amplitude, phase, re, im);
+        planes.clear();
+        planes.add(re);
+        planes.add(im);
+        Core.merge(planes, spectrum);
+        Core.idft(spectrum, spectrum, Core.DFT_SCALE, 0);
+        planes.clear();
+        Core.split(spectrum, planes);
+
+        Mat saliency = new Mat();
+        Core.magnitude(planes.get(0), planes.get(1), saliency);
+        Core.multiply(saliency, saliency, saliency);
+        Imgproc.GaussianBlur(saliency, saliency, new Size(9, 9), 2.5);
+        Core.normalize(saliency, saliency, 0, 1, Core.NORM_MINMAX);
+
+        // Area interpolation averages the map over each module.
+        Mat modules = new Mat();
+        Imgproc.resize(saliency, modules, new Size(dimension, dimension), 0, 0, Imgproc.INTER_AREA);
+        float[] importance = new float[dimension * dimension];
+        modules.get(0, 0, importance);
+        float area = moduleSize * moduleSize;
+        for (int i = 0; i < importance.length; i++) {
+            importance[i] = Math.max(importance[i], 0.0f) * area;
+        }
+        return importance;
+    }
+
+}